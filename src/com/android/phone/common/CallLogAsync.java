@@ -15,10 +15,30 @@
  */
 
 package com.android.phone.common;
+import android.content.ComponentName;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.provider.CallLog.Calls;
+import android.telecom.PhoneAccountHandle;
+
+import com.android.phone.common.calllog.CallLogSnapshot;
+import com.android.phone.common.calllog.QueryStats;
+import com.android.phone.common.calllog.RecentCallBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to access the call log asynchronously to avoid carrying out database operations on the
@@ -40,11 +60,118 @@ import android.provider.CallLog.Calls;
  *  log.getLastOutgoingCall(lastCallArgs);
  * </pre>
  *
+ * The last outgoing number is cached in memory once it has been read, and the cache is dropped
+ * whenever the call log changes. Requests made while the cache is valid are answered on the UI
+ * thread as soon as the call returns, without querying the call log. Requests made while a query
+ * is already running are attached to that query instead of starting another one, and all of
+ * their callbacks receive its result.
+ *
+ * To keep the query from queueing behind unrelated tasks on the default serial executor, pass an
+ * {@link Executor} to {@link #getLastOutgoingCall(GetLastOutgoingCallArgs, Executor)}. The
+ * returned {@link Request} should be cancelled when the requesting component goes away, e.g. from
+ * {@code Activity.onDestroy()}; this drops the callback so that the component can be collected.
+ *
+ * Recent calls can be streamed with
+ * {@link #queryRecentCalls(Context, int, int, OnRecentCallsLoaded, Executor)}, which reads the
+ * call log newest first in fixed-size pages and hands each page to the UI thread as soon as it
+ * has been read.
+ *
+ * After a cold start, the first request is answered from a {@link CallLogSnapshot} saved by the
+ * previous process, so that redial works before the call log has been read. The snapshot is read
+ * on a dedicated thread while the call log is queried, and the callback is invoked again if the
+ * snapshot was out of date. It is only rewritten when the last outgoing number has changed.
+ *
+ * On devices with several phone accounts, such as multi-SIM devices,
+ * {@link #getLastOutgoingCallsPerAccount} resolves the last outgoing number of every account with
+ * a single query, and {@link #getLastOutgoingCall(GetLastOutgoingCallArgs, PhoneAccountHandle,
+ * Executor)} answers for one account from the same cached result.
+ *
+ * Every query records how long it waited for its executor and how long it ran in
+ * {@link #getStats()}, and runs inside an {@link Trace} section named after it, so that call log
+ * slowness shows up in systrace captures. A {@link MetricsListener} can be registered to export
+ * the same measurements.
  */
 
 public class CallLogAsync {
     private static final String TAG = "CallLogAsync";
 
+    // The following static state is only ever accessed on the UI thread.
+
+    /** The last outgoing number read from the call log, or null if it has to be queried. */
+    private static String sLastOutgoingNumber;
+
+    /**
+     * Incremented each time the call log changes, so that results of queries started before the
+     * change are not cached.
+     */
+    private static int sCallLogGeneration;
+
+    /** Observer invalidating the cached number, registered on the first query. */
+    private static ContentObserver sCallLogObserver;
+
+    /** The running query new requests can attach to, or null if there is none. */
+    private static GetLastOutgoingCallTask sInFlightTask;
+
+    /** Whether the cold-start snapshot has been read in this process. */
+    private static boolean sSnapshotOpened;
+
+    /**
+     * The last outgoing number from the cold-start snapshot, until the call log has been read or
+     * has changed; null otherwise.
+     */
+    private static String sSnapshotNumber;
+
+    /**
+     * Reads and writes the cold-start snapshot in order, off the UI thread and without queueing
+     * behind call log queries.
+     */
+    private static final Executor SNAPSHOT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * The last outgoing number in the snapshot file, or null if unknown. Only accessed on
+     * {@link #SNAPSHOT_EXECUTOR}.
+     */
+    private static String sSnapshotFileNumber;
+
+    /** The last outgoing number of each phone account, or null if it has to be queried. */
+    private static Map<PhoneAccountHandle, String> sLastOutgoingNumbersPerAccount;
+
+    /** The running per-account query new requests can attach to, or null if there is none. */
+    private static GetLastOutgoingCallsPerAccountTask sInFlightPerAccountTask;
+
+    /** Runs tasks on the calling thread; their results are still posted to the UI thread. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final String TRACE_LAST_OUTGOING_CALL = "CallLogAsync.lastOutgoingCall";
+    private static final String TRACE_LAST_OUTGOING_CALLS_PER_ACCOUNT =
+            "CallLogAsync.lastOutgoingCallsPerAccount";
+    private static final String TRACE_RECENT_CALLS = "CallLogAsync.recentCalls";
+    private static final String TRACE_WRITE_SNAPSHOT = "CallLogAsync.writeSnapshot";
+
+    private static final QueryStats sStats = new QueryStats();
+    private static MetricsListener sMetricsListener;
+
+    private static final String[] PER_ACCOUNT_PROJECTION = new String[] {
+            Calls.NUMBER,
+            Calls.PHONE_ACCOUNT_COMPONENT_NAME,
+            Calls.PHONE_ACCOUNT_ID,
+    };
+    private static final String PER_ACCOUNT_SELECTION = Calls.TYPE + " = " + Calls.OUTGOING_TYPE;
+    /** Groups the calls by account, newest first within each account. */
+    private static final String PER_ACCOUNT_SORT_ORDER = Calls.PHONE_ACCOUNT_COMPONENT_NAME + ", "
+            + Calls.PHONE_ACCOUNT_ID + ", " + Calls.DATE + " DESC";
+
+    /**
+     * Maximum number of pages read ahead of the UI thread while streaming recent calls. This
+     * bounds the memory held by a query regardless of the size of the call log.
+     */
+    private static final int MAX_PENDING_PAGES = 2;
+
     /**
      * Parameter object to hold the args to get the last outgoing call
      * from the call log DB.
@@ -62,26 +189,445 @@ public class CallLogAsync {
     /** Interface to retrieve the last dialed number asynchronously. */
     public interface OnLastOutgoingCallComplete {
         /** @param number The last dialed number or an empty string if
-         *                none exists yet. */
+         *                none exists yet. Invoked a second time if the number
+         *                first reported came from an out of date snapshot. */
         void lastOutgoingCall(String number);
     }
 
+    /** Interface to retrieve the last dialed number of every phone account asynchronously. */
+    public interface OnLastOutgoingCallsPerAccountComplete {
+        /** @param numbers The last dialed number of each phone account which
+         *                 placed an outgoing call in the call log. Unmodifiable. */
+        void lastOutgoingCalls(Map<PhoneAccountHandle, String> numbers);
+    }
+
+    /**
+     * Receives measurements of call log queries, on the UI thread. Queries are identified by the
+     * name of their trace section.
+     */
+    public interface MetricsListener {
+        /**
+         * Called when a query has completed.
+         *
+         * @param query The name of the query.
+         * @param queueWaitMillis How long the query waited for its executor.
+         * @param executionMillis How long the query ran.
+         */
+        void onQueryCompleted(String query, long queueWaitMillis, long executionMillis);
+
+        /** Called when a query was cancelled because no request was waiting for it. */
+        void onQueryCancelled(String query);
+
+        /** Called when a result is dropped because its request was cancelled while it ran. */
+        void onStaleCallback(String query);
+    }
+
+    /** Sets the listener receiving query measurements, or null to remove it. UI thread only. */
+    public static void setMetricsListener(MetricsListener listener) {
+        assertUiThread();
+        sMetricsListener = listener;
+    }
+
+    /** Returns the measurements of all queries made so far. UI thread only. */
+    public static QueryStats getStats() {
+        assertUiThread();
+        return sStats;
+    }
+
+    /** Interface to receive recent calls page by page. */
+    public interface OnRecentCallsLoaded {
+        /**
+         * Called on the UI thread for each page, newest calls first.
+         *
+         * @param batch The rows of the page. Not retained by {@link CallLogAsync}.
+         */
+        void onRecentCallsBatch(RecentCallBatch batch);
+
+        /**
+         * Called on the UI thread after the last page.
+         *
+         * @param count The total number of rows delivered.
+         */
+        void onRecentCallsComplete(int count);
+    }
+
+    /**
+     * Handle to a pending call log request. Only the application context is retained while the
+     * request runs, and cancelling it drops the callback so that it is never invoked.
+     */
+    public static final class Request {
+        private Object mCallback;
+        private AsyncTask<?, ?, ?> mTask;
+        /** The number already reported from the cold-start snapshot, if any. */
+        private String mSnapshotNumber;
+        /** The account a per-account request is for, or null for all accounts. */
+        private PhoneAccountHandle mAccount;
+        /**
+         * The task handed to a legacy caller, which delivers the result to this request only,
+         * or null.
+         */
+        private KnownNumberTask mHandle;
+        private boolean mCancelled;
+        private boolean mDone;
+
+        private Request(Object callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * Cancels the request. Its callback will not be invoked, and the underlying query is
+         * stopped if no other request is waiting for it. Must be called on the UI thread.
+         */
+        public void cancel() {
+            assertUiThread();
+            if (mCancelled || mDone) {
+                return;
+            }
+            mCancelled = true;
+            mCallback = null;
+            if (mTask instanceof SharedQueryTask) {
+                ((SharedQueryTask<?>) mTask).onRequestCancelled();
+            } else if (mTask != null) {
+                mTask.cancel(false);
+            }
+            mTask = null;
+        }
+
+        /** Returns true if {@link #cancel()} was called before the result was delivered. */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /** Returns true once the result has been delivered to the callback. */
+        public boolean isDone() {
+            return mDone;
+        }
+
+        /** Returns the callback of a request still in progress, or null if it was cancelled. */
+        private Object getCallback() {
+            return mCallback;
+        }
+
+        /** Marks the request as complete and returns its callback, or null if cancelled. */
+        private Object complete() {
+            final Object callback = mCallback;
+            mDone = !mCancelled;
+            mCallback = null;
+            mTask = null;
+            return callback;
+        }
+    }
+
     /**
      * CallLog.getLastOutgoingCall(...)
+     *
+     * The callback is always invoked after this method returns, even when the number is cached.
+     *
+     * @return The task delivering the number to this caller. Cancelling it drops the callback,
+     *         and stops the query only if no other request is waiting for it.
      */
     public AsyncTask getLastOutgoingCall(GetLastOutgoingCallArgs args) {
+        return requestLastOutgoingCall(args, AsyncTask.SERIAL_EXECUTOR, true).mHandle;
+    }
+
+    /**
+     * CallLog.getLastOutgoingCall(...), running the query on the given executor.
+     *
+     * @param args The context and the callback to invoke on the UI thread.
+     * @param executor The executor to run the query on. It is not used if the request can be
+     *         answered from the cache or attached to a query which is already running.
+     * @return A handle which can be used to cancel the request.
+     */
+    public Request getLastOutgoingCall(GetLastOutgoingCallArgs args, Executor executor) {
+        return requestLastOutgoingCall(args, executor, false);
+    }
+
+    /**
+     * @param withHandle Whether to create the task returned to legacy callers.
+     */
+    private Request requestLastOutgoingCall(GetLastOutgoingCallArgs args, Executor executor,
+            boolean withHandle) {
         assertUiThread();
-        return new GetLastOutgoingCallTask(args.callback).execute(args);
+        registerCallLogObserver(args.context);
+        final Request request = new Request(args.callback);
+        if (withHandle) {
+            request.mHandle = new KnownNumberTask(request, true);
+        }
+        if (sLastOutgoingNumber != null) {
+            // Posted, so that the callback runs after this method returns as on a cache miss.
+            final KnownNumberTask task = withHandle
+                    ? request.mHandle : new KnownNumberTask(request, true);
+            request.mTask = task;
+            task.executeOnExecutor(DIRECT_EXECUTOR, sLastOutgoingNumber);
+            return request;
+        }
+        if (!sSnapshotOpened) {
+            sSnapshotOpened = true;
+            new OpenSnapshotTask(args.context.getApplicationContext(), sCallLogGeneration)
+                    .executeOnExecutor(SNAPSHOT_EXECUTOR);
+        } else if (sSnapshotNumber != null) {
+            // Answer as soon as possible; the query below reconciles the snapshot with the call
+            // log.
+            new KnownNumberTask(request, false).executeOnExecutor(DIRECT_EXECUTOR,
+                    sSnapshotNumber);
+        }
+        if (sInFlightTask == null) {
+            sInFlightTask = new GetLastOutgoingCallTask(
+                    args.context.getApplicationContext(), sCallLogGeneration);
+            sInFlightTask.addRequest(request);
+            sInFlightTask.start(executor);
+        } else {
+            sInFlightTask.addRequest(request);
+        }
+        return request;
     }
 
     /**
-     * AsyncTask to get the last outgoing call from the DB.
+     * Retrieves the last outgoing number of every phone account with a single query. The result
+     * is cached until the call log changes.
+     *
+     * @param context The context used to access the call log.
+     * @param callback The callback to invoke on the UI thread.
+     * @param executor The executor to run the query on. It is not used if the request can be
+     *         answered from the cache or attached to a query which is already running.
+     * @return A handle which can be used to cancel the request.
      */
-    private class GetLastOutgoingCallTask extends AsyncTask<GetLastOutgoingCallArgs, Void, String> {
-        private final OnLastOutgoingCallComplete mCallback;
-        private String mNumber;
-        public GetLastOutgoingCallTask(OnLastOutgoingCallComplete callback) {
-            mCallback = callback;
+    public Request getLastOutgoingCallsPerAccount(Context context,
+            OnLastOutgoingCallsPerAccountComplete callback, Executor executor) {
+        return requestPerAccount(context, callback, null, executor);
+    }
+
+    /**
+     * CallLog.getLastOutgoingCall(...) for the calls placed with one phone account. This is
+     * answered from the same query as {@link #getLastOutgoingCallsPerAccount}, so resolving the
+     * number for several accounts costs a single query.
+     *
+     * @param args The context and the callback to invoke on the UI thread. The callback receives
+     *         an empty string if the account has no recent outgoing call.
+     * @param account The phone account.
+     * @param executor The executor to run the query on, if one is needed.
+     * @return A handle which can be used to cancel the request.
+     */
+    public Request getLastOutgoingCall(GetLastOutgoingCallArgs args, PhoneAccountHandle account,
+            Executor executor) {
+        return requestPerAccount(args.context, args.callback, account, executor);
+    }
+
+    private Request requestPerAccount(Context context, Object callback,
+            PhoneAccountHandle account, Executor executor) {
+        assertUiThread();
+        registerCallLogObserver(context);
+        final Request request = new Request(callback);
+        request.mAccount = account;
+        if (sLastOutgoingNumbersPerAccount != null) {
+            deliverPerAccount(request, sLastOutgoingNumbersPerAccount);
+            return request;
+        }
+        if (sInFlightPerAccountTask == null) {
+            sInFlightPerAccountTask = new GetLastOutgoingCallsPerAccountTask(
+                    context.getApplicationContext(), sCallLogGeneration);
+            sInFlightPerAccountTask.addRequest(request);
+            sInFlightPerAccountTask.start(executor);
+        } else {
+            sInFlightPerAccountTask.addRequest(request);
+        }
+        return request;
+    }
+
+    private static void deliverPerAccount(Request request,
+            Map<PhoneAccountHandle, String> numbers) {
+        final PhoneAccountHandle account = request.mAccount;
+        final Object callback = request.complete();
+        if (callback == null) {
+            recordStaleCallback(TRACE_LAST_OUTGOING_CALLS_PER_ACCOUNT);
+        } else if (callback instanceof OnLastOutgoingCallsPerAccountComplete) {
+            ((OnLastOutgoingCallsPerAccountComplete) callback).lastOutgoingCalls(numbers);
+        } else if (callback instanceof OnLastOutgoingCallComplete) {
+            final String number = numbers.get(account);
+            ((OnLastOutgoingCallComplete) callback).lastOutgoingCall(number != null ? number : "");
+        }
+    }
+
+    /**
+     * Streams the most recent calls, newest first, in pages of at most {@code pageSize} rows.
+     * At most {@link #MAX_PENDING_PAGES} pages are read ahead of the UI thread.
+     *
+     * @param context The context used to access the call log.
+     * @param pageSize The maximum number of rows in each page.
+     * @param maxRows The maximum number of rows to read in total.
+     * @param callback The callback invoked on the UI thread for each page and on completion.
+     * @param executor The executor to run the query on.
+     * @return A handle which can be used to stop the query.
+     */
+    public Request queryRecentCalls(Context context, int pageSize, int maxRows,
+            OnRecentCallsLoaded callback, Executor executor) {
+        assertUiThread();
+        final Request request = new Request(callback);
+        final QueryRecentCallsTask task = new QueryRecentCallsTask(
+                context.getApplicationContext(), request, pageSize, maxRows);
+        request.mTask = task;
+        task.start(executor);
+        return request;
+    }
+
+    private static void registerCallLogObserver(Context context) {
+        if (sCallLogObserver != null) {
+            return;
+        }
+        sCallLogObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                sLastOutgoingNumber = null;
+                sSnapshotNumber = null;
+                sLastOutgoingNumbersPerAccount = null;
+                sCallLogGeneration++;
+                // The running queries may have missed the change; let new requests start over.
+                sInFlightTask = null;
+                sInFlightPerAccountTask = null;
+            }
+        };
+        context.getApplicationContext().getContentResolver().registerContentObserver(
+                Calls.CONTENT_URI, true, sCallLogObserver);
+    }
+
+    private static void recordStaleCallback(String query) {
+        sStats.recordStaleCallback();
+        if (sMetricsListener != null) {
+            sMetricsListener.onStaleCallback(query);
+        }
+    }
+
+    /**
+     * AsyncTask measuring how long it waits for its executor and how long it runs, and tracing
+     * its execution.
+     */
+    private abstract static class InstrumentedTask<Progress, Result>
+            extends AsyncTask<Void, Progress, Result> {
+        private final String mName;
+        private long mSubmitTime;
+        private long mStartTime;
+        private long mEndTime;
+
+        public InstrumentedTask(String name) {
+            mName = name;
+        }
+
+        public void start(Executor executor) {
+            mSubmitTime = SystemClock.elapsedRealtime();
+            executeOnExecutor(executor);
+        }
+
+        @Override
+        protected final Result doInBackground(Void... params) {
+            mStartTime = SystemClock.elapsedRealtime();
+            Trace.beginSection(mName);
+            try {
+                return runQuery();
+            } finally {
+                Trace.endSection();
+                mEndTime = SystemClock.elapsedRealtime();
+            }
+        }
+
+        /** Runs the query. Happens on a background thread. */
+        protected abstract Result runQuery();
+
+        /** Records the timings of the completed query. Must be called on the UI thread. */
+        protected void recordCompleted() {
+            final long queueWait = mStartTime - mSubmitTime;
+            final long execution = mEndTime - mStartTime;
+            sStats.recordQuery(queueWait, execution);
+            if (sMetricsListener != null) {
+                sMetricsListener.onQueryCompleted(mName, queueWait, execution);
+            }
+        }
+
+        /** Records a result dropped because its request was cancelled. */
+        protected void recordStaleCallback() {
+            CallLogAsync.recordStaleCallback(mName);
+        }
+
+        @Override
+        protected void onCancelled(Result result) {
+            sStats.recordCancelledQuery();
+            if (sMetricsListener != null) {
+                sMetricsListener.onQueryCancelled(mName);
+            }
+        }
+    }
+
+    /**
+     * AsyncTask running one query on behalf of every request attached to it while it runs.
+     * Cancelled requests stay attached, so that results arriving for them can be counted as
+     * stale.
+     */
+    private abstract static class SharedQueryTask<Result> extends InstrumentedTask<Void, Result> {
+        private final ArrayList<Request> mRequests = new ArrayList<Request>();
+
+        public SharedQueryTask(String name) {
+            super(name);
+        }
+
+        public void addRequest(Request request) {
+            request.mTask = this;
+            mRequests.add(request);
+        }
+
+        /** Returns the attached requests, without detaching them. */
+        protected Request[] getRequests() {
+            return mRequests.toArray(new Request[mRequests.size()]);
+        }
+
+        public void onRequestCancelled() {
+            for (Request request : mRequests) {
+                if (!request.isCancelled()) {
+                    return;
+                }
+            }
+            // Nobody is waiting for the result any more.
+            cancel(false);
+            detach();
+        }
+
+        /** Stops new requests from attaching to this task. */
+        protected abstract void detach();
+
+        /**
+         * Returns the attached requests and detaches them, so that callbacks run for them may
+         * cancel other requests.
+         */
+        protected Request[] takeRequests() {
+            final Request[] requests = mRequests.toArray(new Request[mRequests.size()]);
+            mRequests.clear();
+            return requests;
+        }
+
+        @Override
+        protected void onCancelled(Result result) {
+            super.onCancelled(result);
+            detach();
+            mRequests.clear();
+        }
+    }
+
+    /**
+     * AsyncTask to get the last outgoing call from the DB, on behalf of every request attached to
+     * it while it runs.
+     */
+    private static class GetLastOutgoingCallTask extends SharedQueryTask<String> {
+        private final Context mContext;
+        private final int mGeneration;
+        public GetLastOutgoingCallTask(Context context, int generation) {
+            super(TRACE_LAST_OUTGOING_CALL);
+            mContext = context;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected void detach() {
+            if (sInFlightTask == this) {
+                sInFlightTask = null;
+            }
         }
 
         // Happens on a background thread. We cannot run the callback
@@ -89,14 +635,9 @@ public class CallLogAsync {
         // hierarchy (e.g enable/disable the dial button). The
         // callback is ran rom the post execute method.
         @Override
-        protected String doInBackground(GetLastOutgoingCallArgs... list) {
-            int count = list.length;
-            String number = "";
-            for (GetLastOutgoingCallArgs args : list) {
-                // May block. Select only the last one.
-                number = Calls.getLastOutgoingCall(args.context);
-            }
-            return number;  // passed to the onPostExecute method.
+        protected String runQuery() {
+            // May block.
+            return Calls.getLastOutgoingCall(mContext);  // passed to the onPostExecute method.
         }
 
         // Happens on the UI thread, it is safe to run the callback
@@ -104,11 +645,305 @@ public class CallLogAsync {
         @Override
         protected void onPostExecute(String number) {
             assertUiThread();
-            mCallback.lastOutgoingCall(number);
+            recordCompleted();
+            detach();
+            if (mGeneration == sCallLogGeneration) {
+                sLastOutgoingNumber = number;
+                sSnapshotNumber = null;
+                writeSnapshot(mContext, number);
+            }
+            for (Request request : takeRequests()) {
+                if (request.mHandle != null && !request.isCancelled()) {
+                    // The caller's own task delivers the number, so that cancelling it only
+                    // affects this request.
+                    request.mHandle.executeOnExecutor(DIRECT_EXECUTOR, number);
+                    continue;
+                }
+                final String reported = request.mSnapshotNumber;
+                final OnLastOutgoingCallComplete callback =
+                        (OnLastOutgoingCallComplete) request.complete();
+                if (callback == null) {
+                    recordStaleCallback();
+                } else if (!number.equals(reported)) {
+                    callback.lastOutgoingCall(number);
+                }
+            }
+        }
+    }
+
+    /**
+     * AsyncTask delivering a number which is already known without any background work. It is
+     * executed with the number on {@link #DIRECT_EXECUTOR}, so that its result is posted to the
+     * UI thread right away. A final task may be cancelled before it is executed, which cancels
+     * its request.
+     */
+    private static class KnownNumberTask extends AsyncTask<String, Void, String> {
+        private final Request mRequest;
+        /** Whether the number is the result of the request, rather than a snapshot of it. */
+        private final boolean mFinal;
+
+        public KnownNumberTask(Request request, boolean isFinal) {
+            mRequest = request;
+            mFinal = isFinal;
+        }
+
+        @Override
+        protected String doInBackground(String... numbers) {
+            return numbers[0];
+        }
+
+        @Override
+        protected void onPostExecute(String number) {
+            assertUiThread();
+            final OnLastOutgoingCallComplete callback;
+            if (mFinal) {
+                callback = (OnLastOutgoingCallComplete) mRequest.complete();
+                if (number.equals(mRequest.mSnapshotNumber)) {
+                    // Already reported from the snapshot.
+                    return;
+                }
+            } else if (!mRequest.isDone()) {
+                // The query reporting the same number again skips the callback.
+                callback = (OnLastOutgoingCallComplete) mRequest.getCallback();
+                mRequest.mSnapshotNumber = number;
+            } else {
+                // The query answered first.
+                callback = null;
+            }
+            if (callback != null) {
+                callback.lastOutgoingCall(number);
+            }
+        }
+
+        @Override
+        protected void onCancelled(String number) {
+            // Also posted when a task which was never executed is cancelled.
+            if (mFinal) {
+                mRequest.cancel();
+            }
+        }
+    }
+
+    /**
+     * AsyncTask to get the last outgoing call of every phone account with a single query.
+     */
+    private static class GetLastOutgoingCallsPerAccountTask
+            extends SharedQueryTask<Map<PhoneAccountHandle, String>> {
+        private final Context mContext;
+        private final int mGeneration;
+
+        public GetLastOutgoingCallsPerAccountTask(Context context, int generation) {
+            super(TRACE_LAST_OUTGOING_CALLS_PER_ACCOUNT);
+            mContext = context;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected void detach() {
+            if (sInFlightPerAccountTask == this) {
+                sInFlightPerAccountTask = null;
+            }
+        }
+
+        @Override
+        protected Map<PhoneAccountHandle, String> runQuery() {
+            final HashMap<PhoneAccountHandle, String> numbers =
+                    new HashMap<PhoneAccountHandle, String>();
+            final Cursor cursor = mContext.getContentResolver().query(Calls.CONTENT_URI,
+                    PER_ACCOUNT_PROJECTION, PER_ACCOUNT_SELECTION, null, PER_ACCOUNT_SORT_ORDER);
+            if (cursor == null) {
+                return Collections.unmodifiableMap(numbers);
+            }
+            try {
+                String lastComponentString = null;
+                String lastId = null;
+                while (cursor.moveToNext() && !isCancelled()) {
+                    final String componentString = cursor.getString(1);
+                    final String id = cursor.getString(2);
+                    if (componentString == null || id == null) {
+                        continue;
+                    }
+                    if (componentString.equals(lastComponentString) && id.equals(lastId)) {
+                        // Not the first, and so not the last, call of its account.
+                        continue;
+                    }
+                    lastComponentString = componentString;
+                    lastId = id;
+                    final ComponentName component =
+                            ComponentName.unflattenFromString(componentString);
+                    if (component != null) {
+                        final String number = cursor.getString(0);
+                        numbers.put(new PhoneAccountHandle(component, id),
+                                number != null ? number : "");
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return Collections.unmodifiableMap(numbers);
+        }
+
+        @Override
+        protected void onPostExecute(Map<PhoneAccountHandle, String> numbers) {
+            assertUiThread();
+            recordCompleted();
+            detach();
+            if (mGeneration == sCallLogGeneration) {
+                sLastOutgoingNumbersPerAccount = numbers;
+            }
+            for (Request request : takeRequests()) {
+                deliverPerAccount(request, numbers);
+            }
+        }
+    }
+
+    /**
+     * Saves the last outgoing number for the next cold start, unless the snapshot already has it.
+     */
+    private static void writeSnapshot(final Context context, final String lastOutgoingNumber) {
+        SNAPSHOT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (lastOutgoingNumber.equals(sSnapshotFileNumber)) {
+                    return;
+                }
+                Trace.beginSection(TRACE_WRITE_SNAPSHOT);
+                try {
+                    CallLogSnapshot.write(context, lastOutgoingNumber);
+                    sSnapshotFileNumber = lastOutgoingNumber;
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * AsyncTask reading the cold-start snapshot, and reporting its number to the requests waiting
+     * for the call log query.
+     */
+    private static class OpenSnapshotTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+        private final int mGeneration;
+
+        public OpenSnapshotTask(Context context, int generation) {
+            mContext = context;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            final CallLogSnapshot snapshot = CallLogSnapshot.open(mContext);
+            sSnapshotFileNumber = snapshot != null ? snapshot.getLastOutgoingNumber() : null;
+            return sSnapshotFileNumber;
+        }
+
+        @Override
+        protected void onPostExecute(String number) {
+            assertUiThread();
+            if (number == null || mGeneration != sCallLogGeneration
+                    || sLastOutgoingNumber != null) {
+                // Nothing saved, or the call log has changed or been read in the meantime.
+                return;
+            }
+            sSnapshotNumber = number;
+            if (sInFlightTask == null) {
+                return;
+            }
+            for (Request request : sInFlightTask.getRequests()) {
+                final OnLastOutgoingCallComplete callback =
+                        (OnLastOutgoingCallComplete) request.getCallback();
+                if (callback != null && !request.isDone()) {
+                    // The query reporting the same number again skips the callback.
+                    request.mSnapshotNumber = number;
+                    callback.lastOutgoingCall(number);
+                }
+            }
+        }
+    }
+
+    /**
+     * AsyncTask reading the call log page by page and publishing each page to the UI thread.
+     */
+    private static class QueryRecentCallsTask
+            extends InstrumentedTask<RecentCallBatch, Integer> {
+        private final Context mContext;
+        private final Request mRequest;
+        private final int mPageSize;
+        private final int mMaxRows;
+        private final Semaphore mPendingPages = new Semaphore(MAX_PENDING_PAGES);
+
+        public QueryRecentCallsTask(Context context, Request request, int pageSize,
+                int maxRows) {
+            super(TRACE_RECENT_CALLS);
+            mContext = context;
+            mRequest = request;
+            mPageSize = pageSize;
+            mMaxRows = maxRows;
+        }
+
+        @Override
+        protected Integer runQuery() {
+            long date = Long.MAX_VALUE;
+            long id = 0;
+            int count = 0;
+            while (count < mMaxRows && !isCancelled()) {
+                final int limit = Math.min(mPageSize, mMaxRows - count);
+                final RecentCallBatch batch = RecentCallBatch.queryOlderThan(
+                        mContext.getContentResolver(), date, id, limit);
+                if (batch == null || batch.size() == 0) {
+                    break;
+                }
+                // Wait until the UI thread has caught up, so that pages don't pile up in memory.
+                if (!acquirePendingPage()) {
+                    break;
+                }
+                publishProgress(batch);
+                count += batch.size();
+                if (batch.size() < limit) {
+                    break;
+                }
+                date = batch.getDate(batch.size() - 1);
+                id = batch.getId(batch.size() - 1);
+            }
+            return count;
+        }
+
+        private boolean acquirePendingPage() {
+            try {
+                while (!isCancelled()) {
+                    if (mPendingPages.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        @Override
+        protected void onProgressUpdate(RecentCallBatch... batches) {
+            mPendingPages.release();
+            final OnRecentCallsLoaded callback = (OnRecentCallsLoaded) mRequest.getCallback();
+            if (callback != null) {
+                callback.onRecentCallsBatch(batches[0]);
+            } else {
+                recordStaleCallback();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            recordCompleted();
+            final OnRecentCallsLoaded callback = (OnRecentCallsLoaded) mRequest.complete();
+            if (callback != null) {
+                callback.onRecentCallsComplete(count);
+            }
         }
     }
 
-    private void assertUiThread() {
+    private static void assertUiThread() {
         if (!Looper.getMainLooper().equals(Looper.myLooper())) {
             throw new RuntimeException("Not on the UI thread!");
         }
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog.Calls;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps an in-memory model of the call log up to date by reading only the rows inserted since the
+ * previous sync.
+ * <p>
+ * The sync remembers a high-water mark, the highest {@link Calls#_ID} it has delivered, along with
+ * the number of rows at or below it. When the call log changes, only the rows above the mark are
+ * read, so the cost of a refresh grows with the number of new calls rather than with the size of
+ * the log. The columns delivered in a {@link RecentCallBatch} never change once a row has been
+ * written, so other updates do not need to be read again.
+ * <p>
+ * Whether rows at or below the mark have been deleted is checked by reading a single row. Once the
+ * call log is full, the provider deletes its oldest rows on every insert; such pruning is told
+ * apart from other deletions with two more single-row reads, and the row count is re-based while
+ * the model keeps the pruned rows. Any other deletion resets the model, and the whole log is read
+ * again.
+ * <p>
+ * All methods must be called, and all listener methods are invoked, on the UI thread.
+ */
+public class CallLogDeltaSync {
+    private static final int PAGE_SIZE = 100;
+
+    /** Receives the changes to apply to the model. */
+    public interface Listener {
+        /**
+         * Called with rows inserted since the previous sync, oldest first. On the first sync,
+         * and after a reset, this is called with the whole call log, one page at a time.
+         */
+        void onCallLogRowsAdded(RecentCallBatch batch);
+
+        /**
+         * Called when rows previously delivered have been deleted, other than the oldest rows
+         * pruned by the provider once the call log is full. The model should be cleared;
+         * the remaining rows are then delivered again through {@link #onCallLogRowsAdded}.
+         */
+        void onCallLogReset();
+
+        /**
+         * Called when a sync has delivered all the rows present in the call log. After a reset,
+         * this tells the model that it is complete again.
+         */
+        void onCallLogSynced();
+    }
+
+    private final Context mContext;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    private final ContentObserver mObserver;
+
+    private long mHighWaterId = -1;
+    private int mRowCount;
+    /**
+     * The {@link Calls#_ID}s of the rows at or below the mark, in ascending order, used to tell
+     * pruning from other deletions. Null while unknown after {@link #setHighWaterMark}.
+     */
+    private long[] mRowIds = new long[PAGE_SIZE];
+    private SyncTask mRunningTask;
+    private boolean mSyncPending;
+    private boolean mStarted;
+
+    /**
+     * @param context The context used to access the call log.
+     * @param executor The executor to read the call log on.
+     * @param listener The listener applying changes to the model.
+     */
+    public CallLogDeltaSync(Context context, Executor executor, Listener listener) {
+        mContext = context.getApplicationContext();
+        mExecutor = executor;
+        mListener = listener;
+        mObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                requestSync();
+            }
+        };
+    }
+
+    /** Starts observing the call log, and delivers the rows not synced yet. */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mContext.getContentResolver().registerContentObserver(Calls.CONTENT_URI, true, mObserver);
+        requestSync();
+    }
+
+    /**
+     * Stops observing the call log. The high-water mark is kept, so that a later call to
+     * {@link #start()} only delivers the rows inserted in the meantime.
+     */
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mSyncPending = false;
+        if (mRunningTask != null) {
+            mRunningTask.cancel(false);
+            mRunningTask = null;
+        }
+    }
+
+    /** Returns the highest {@link Calls#_ID} delivered so far, or -1 if none. */
+    public long getHighWaterMark() {
+        return mHighWaterId;
+    }
+
+    /** Returns the number of rows at or below the high-water mark. */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Restores a high-water mark saved from a previous sync, so that a model restored from disk
+     * only receives the rows inserted since. Must be called before {@link #start()}.
+     *
+     * @param id The value previously returned by {@link #getHighWaterMark()}.
+     * @param rowCount The value previously returned by {@link #getRowCount()}.
+     */
+    public void setHighWaterMark(long id, int rowCount) {
+        if (mStarted) {
+            throw new IllegalStateException("Cannot set the high-water mark while started");
+        }
+        mHighWaterId = id;
+        mRowCount = rowCount;
+        mRowIds = rowCount > 0 ? null : new long[PAGE_SIZE];
+    }
+
+    private void requestSync() {
+        if (!mStarted) {
+            return;
+        }
+        if (mRunningTask != null) {
+            // Changes made while the task runs may have been missed; sync again afterwards.
+            mSyncPending = true;
+            return;
+        }
+        mRunningTask = new SyncTask(mHighWaterId, mRowCount,
+                mRowIds != null ? Arrays.copyOf(mRowIds, mRowCount) : null);
+        mRunningTask.executeOnExecutor(mExecutor);
+    }
+
+    private void onSyncFinished() {
+        mRunningTask = null;
+        if (mSyncPending) {
+            mSyncPending = false;
+            requestSync();
+        }
+    }
+
+    /** Progress value telling the UI thread that the model has to be cleared. */
+    private static final Object RESET = new Object();
+
+    /** Result of the deletion check when no delivered row is gone. */
+    private static final Object UNCHANGED = new Object();
+
+    /** Progress value telling the UI thread that the oldest rows have been pruned. */
+    private static final class Pruned {
+        public final int mRows;
+
+        public Pruned(int rows) {
+            mRows = rows;
+        }
+    }
+
+    private class SyncTask extends AsyncTask<Void, Object, Boolean> {
+        private final long mFromId;
+        private final int mExpectedRows;
+        private final long[] mExpectedIds;
+
+        public SyncTask(long fromId, int expectedRows, long[] expectedIds) {
+            mFromId = fromId;
+            mExpectedRows = expectedRows;
+            mExpectedIds = expectedIds;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            final ContentResolver resolver = mContext.getContentResolver();
+            long fromId = mFromId;
+            if (fromId >= 0 && mExpectedRows > 0) {
+                final Object change = mExpectedIds != null
+                        ? checkDeletedRows(resolver) : readExpectedIds(resolver);
+                if (change == null) {
+                    return false;
+                }
+                if (change != UNCHANGED) {
+                    publishProgress(change);
+                }
+                if (change == RESET) {
+                    fromId = -1;
+                }
+            }
+            while (!isCancelled()) {
+                final RecentCallBatch batch =
+                        RecentCallBatch.queryNewerThan(resolver, fromId, PAGE_SIZE);
+                if (batch == null) {
+                    return false;
+                }
+                if (batch.size() > 0) {
+                    publishProgress(batch);
+                }
+                if (batch.size() < PAGE_SIZE) {
+                    return true;
+                }
+                fromId = batch.getId(batch.size() - 1);
+            }
+            return false;
+        }
+
+        /**
+         * Returns {@link #UNCHANGED} if no delivered row is gone, a {@link Pruned} if only the
+         * oldest ones are, {@link #RESET} for any other deletion, or null if the call log could
+         * not be queried.
+         */
+        private Object checkDeletedRows(ContentResolver resolver) {
+            // Rows are never inserted below the high-water mark, so if none were deleted the
+            // last row we delivered is still at the same position.
+            final long lastId =
+                    RecentCallBatch.getIdAtPosition(resolver, mFromId, mExpectedRows - 1);
+            if (lastId < 0) {
+                return null;
+            }
+            if (lastId == mFromId) {
+                return UNCHANGED;
+            }
+            final long firstId = RecentCallBatch.getIdAtPosition(resolver, mFromId, 0);
+            if (firstId <= 0) {
+                return firstId < 0 ? null : RESET;
+            }
+            final int pruned = Arrays.binarySearch(mExpectedIds, firstId);
+            if (pruned <= 0) {
+                return RESET;
+            }
+            // The remaining rows are a subset of the delivered ones from firstId up, so if there
+            // are as many of them, none was deleted between the first row and the mark.
+            final long keptLastId = RecentCallBatch.getIdAtPosition(resolver, mFromId,
+                    mExpectedRows - pruned - 1);
+            if (keptLastId < 0) {
+                return null;
+            }
+            return keptLastId == mFromId ? new Pruned(pruned) : RESET;
+        }
+
+        /**
+         * Reads the ids of the rows at or below a restored mark. Returns them if no row is gone,
+         * {@link #RESET} if any is, or null if the call log could not be queried.
+         */
+        private Object readExpectedIds(ContentResolver resolver) {
+            final long[] ids = RecentCallBatch.queryIdsUpTo(resolver, mFromId);
+            if (ids == null) {
+                return null;
+            }
+            return ids.length == mExpectedRows && ids[ids.length - 1] == mFromId ? ids : RESET;
+        }
+
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            if (isCancelled()) {
+                return;
+            }
+            final Object value = values[0];
+            if (value == RESET) {
+                mHighWaterId = -1;
+                mRowCount = 0;
+                mRowIds = new long[PAGE_SIZE];
+                mListener.onCallLogReset();
+            } else if (value instanceof Pruned) {
+                final int pruned = ((Pruned) value).mRows;
+                mRowIds = Arrays.copyOfRange(mRowIds, pruned, mRowIds.length);
+                mRowCount -= pruned;
+            } else if (value instanceof long[]) {
+                mRowIds = (long[]) value;
+            } else {
+                onRowsAdded((RecentCallBatch) value);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean complete) {
+            if (complete) {
+                mListener.onCallLogSynced();
+            }
+            onSyncFinished();
+        }
+    }
+
+    private void onRowsAdded(RecentCallBatch batch) {
+        final int size = batch.size();
+        if (mRowIds != null) {
+            if (mRowCount + size > mRowIds.length) {
+                mRowIds = Arrays.copyOf(mRowIds, Math.max(mRowIds.length * 2, mRowCount + size));
+            }
+            for (int i = 0; i < size; i++) {
+                mRowIds[mRowCount + i] = batch.getId(i);
+            }
+        }
+        mHighWaterId = batch.getId(size - 1);
+        mRowCount += size;
+        mListener.onCallLogRowsAdded(batch);
+    }
+}
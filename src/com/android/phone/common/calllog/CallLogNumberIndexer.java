@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Maintains a {@link NumberPrefixIndex} of the numbers in the call log.
+ * <p>
+ * New rows are picked up through a {@link CallLogDeltaSync}, and the index is rebuilt with them on
+ * the background executor, so the dialpad can match typed digits against the call history without
+ * querying the provider. When rows are deleted from the call log, a new index is built on the side
+ * and the current one stays in use until it is complete. All methods must be called on the UI
+ * thread.
+ *
+ * <pre class="prettyprint">
+ *  mIndexer = new CallLogNumberIndexer(context, AsyncTask.THREAD_POOL_EXECUTOR,
+ *          new CallLogNumberIndexer.Listener() {
+ *              public void onIndexUpdated(NumberPrefixIndex index) {
+ *                  mMatcher = index.newMatcher();
+ *                  mMatcher.setQuery(mDigits.getText());
+ *              }
+ *          });
+ *  mIndexer.start();
+ * </pre>
+ */
+public class CallLogNumberIndexer implements CallLogDeltaSync.Listener {
+    /** Notified each time a new index has been built. */
+    public interface Listener {
+        void onIndexUpdated(NumberPrefixIndex index);
+    }
+
+    private final CallLogDeltaSync mSync;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    private NumberPrefixIndex mIndex = NumberPrefixIndex.EMPTY;
+    /** The index being rebuilt after a reset, which replaces mIndex once complete, or null. */
+    private NumberPrefixIndex mNextIndex;
+    /** Whether all rows of the call log have been received for mNextIndex. */
+    private boolean mNextIndexSynced;
+    /** Numbers received since the last rebuild was started. */
+    private PackedNumberStore mPending = new PackedNumberStore();
+    private AsyncTask<Void, Void, NumberPrefixIndex> mRebuildTask;
+    /** Incremented on reset, so that rebuilds of stale data are discarded. */
+    private int mGeneration;
+
+    /**
+     * @param context The context used to access the call log.
+     * @param executor The executor to read the call log and build the index on.
+     * @param listener The listener notified of new indices, may be null.
+     */
+    public CallLogNumberIndexer(Context context, Executor executor, Listener listener) {
+        mSync = new CallLogDeltaSync(context, executor, this);
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /** Starts indexing the call log and keeping the index up to date. */
+    public void start() {
+        mSync.start();
+    }
+
+    /** Stops observing the call log. The current index remains available. */
+    public void stop() {
+        mSync.stop();
+    }
+
+    /** Returns the most recent index, which is empty until the first build completes. */
+    public NumberPrefixIndex getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public void onCallLogRowsAdded(RecentCallBatch batch) {
+        batch.addNumbersTo(mPending);
+        scheduleRebuild();
+    }
+
+    @Override
+    public void onCallLogReset() {
+        mGeneration++;
+        mPending = new PackedNumberStore();
+        if (mRebuildTask != null) {
+            mRebuildTask.cancel(false);
+            mRebuildTask = null;
+        }
+        // The current index stays in use until the new one holds the whole call log.
+        mNextIndex = NumberPrefixIndex.EMPTY;
+        mNextIndexSynced = false;
+    }
+
+    @Override
+    public void onCallLogSynced() {
+        if (mNextIndex != null) {
+            mNextIndexSynced = true;
+            maybeSwapIndex();
+        }
+    }
+
+    private void maybeSwapIndex() {
+        if (!mNextIndexSynced || mRebuildTask != null || mPending.size() > 0) {
+            return;
+        }
+        mIndex = mNextIndex;
+        mNextIndex = null;
+        mNextIndexSynced = false;
+        if (mListener != null) {
+            mListener.onIndexUpdated(mIndex);
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (mRebuildTask != null || mPending.size() == 0) {
+            // Pending numbers are picked up once the running rebuild completes.
+            return;
+        }
+        final NumberPrefixIndex base = mNextIndex != null ? mNextIndex : mIndex;
+        final PackedNumberStore added = mPending;
+        final int generation = mGeneration;
+        mPending = new PackedNumberStore();
+        mRebuildTask = new AsyncTask<Void, Void, NumberPrefixIndex>() {
+            @Override
+            protected NumberPrefixIndex doInBackground(Void... params) {
+                return NumberPrefixIndex.merge(base, added);
+            }
+
+            @Override
+            protected void onPostExecute(NumberPrefixIndex index) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mRebuildTask = null;
+                if (mNextIndex != null) {
+                    mNextIndex = index;
+                } else {
+                    mIndex = index;
+                    if (mListener != null) {
+                        mListener.onIndexUpdated(index);
+                    }
+                }
+                scheduleRebuild();
+                if (mNextIndex != null) {
+                    maybeSwapIndex();
+                }
+            }
+        };
+        mRebuildTask.executeOnExecutor(mExecutor);
+    }
+}
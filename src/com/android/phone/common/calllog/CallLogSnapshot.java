@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary snapshot of the last outgoing number, kept in a memory-mapped file in app
+ * storage so that it is available immediately after a cold start.
+ * <p>
+ * The file has a fixed size, so the number is read straight out of the mapping at a known
+ * offset, without parsing the file. It is stored as dial character nibbles (see
+ * {@link PackedNumberStore#encode}); numbers longer than {@link #MAX_NUMBER_LENGTH} characters or
+ * with other characters than dial characters are not stored, so that every stored number reads
+ * back exactly as it was written.
+ * <p>
+ * A snapshot may be out of date, and should be reconciled with the call log in the background.
+ * Snapshots are written to a temporary file which then replaces the previous one, so readers
+ * never see a partially written snapshot.
+ */
+public final class CallLogSnapshot {
+    private static final String TAG = CallLogSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "call_log_snapshot";
+
+    /** Serializes writers, which share the temporary file. */
+    private static final Object sWriteLock = new Object();
+
+    /** Maximum number of dial characters of a stored number. */
+    public static final int MAX_NUMBER_LENGTH = 40;
+
+    private static final int MAGIC = 0x434c534e; // "CLSN"
+    private static final int VERSION = 2;
+
+    // Header: magic, version; then the number: length (short), nibbles.
+    private static final int HEADER_SIZE = 8;
+    private static final int OFFSET_LENGTH = HEADER_SIZE;
+    private static final int OFFSET_NIBBLES = OFFSET_LENGTH + 2;
+
+    private static final int FILE_SIZE = OFFSET_NIBBLES + MAX_NUMBER_LENGTH / 2;
+
+    private final ByteBuffer mBuffer;
+
+    private CallLogSnapshot(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Maps the snapshot saved in app storage. Must not be called on the UI thread.
+     *
+     * @return The snapshot, or null if none was saved or it is unreadable.
+     */
+    public static CallLogSnapshot open(Context context) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        if (file.length() != FILE_SIZE) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            // The mapping stays valid after the file is closed or replaced.
+            final MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            return new CallLogSnapshot(buffer);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map call log snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /** Returns the last outgoing number, or null if the snapshot does not have it. */
+    public String getLastOutgoingNumber() {
+        final int length = mBuffer.getShort(OFFSET_LENGTH);
+        if (length < 0 || length > MAX_NUMBER_LENGTH) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            final int b = mBuffer.get(OFFSET_NIBBLES + i / 2);
+            final int code = (i % 2 == 0 ? b >> 4 : b) & 0xf;
+            if (code > 14) {
+                return null;
+            }
+            chars[i] = PackedNumberStore.decode(code);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Writes a new snapshot. Must not be called on the UI thread. Concurrent writes are
+     * serialized, the last one wins.
+     *
+     * @param context The context used to access app storage.
+     * @param lastOutgoingNumber The last outgoing number, or null if unknown.
+     */
+    public static void write(Context context, String lastOutgoingNumber) {
+        synchronized (sWriteLock) {
+            writeLocked(context, lastOutgoingNumber);
+        }
+    }
+
+    private static void writeLocked(Context context, String lastOutgoingNumber) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(temp, "rw");
+            raf.setLength(FILE_SIZE);
+            final MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writeNumber(buffer, lastOutgoingNumber);
+            buffer.force();
+            raf.close();
+            raf = null;
+            if (!temp.renameTo(file)) {
+                Log.w(TAG, "Failed to replace call log snapshot");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write call log snapshot", e);
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Writes the number, or marks it as missing. Numbers with characters other than dial
+     * characters (SIP addresses, formatted or alphanumeric numbers) are not stored, since they
+     * could not be read back as they are.
+     */
+    private static void writeNumber(ByteBuffer buffer, String number) {
+        if (number == null || number.length() > MAX_NUMBER_LENGTH) {
+            buffer.putShort(OFFSET_LENGTH, (short) -1);
+            return;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (PackedNumberStore.encode(number.charAt(i)) == PackedNumberStore.NOT_A_DIAL_CHAR) {
+                buffer.putShort(OFFSET_LENGTH, (short) -1);
+                return;
+            }
+        }
+        for (int i = 0; i < number.length(); i++) {
+            final int code = PackedNumberStore.encode(number.charAt(i));
+            final int index = OFFSET_NIBBLES + i / 2;
+            buffer.put(index, (byte) (i % 2 == 0 ? code << 4 : (buffer.get(index) & 0xf0) | code));
+        }
+        buffer.putShort(OFFSET_LENGTH, (short) number.length());
+    }
+
+    private static void closeQuietly(RandomAccessFile raf) {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+}
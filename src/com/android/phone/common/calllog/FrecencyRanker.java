@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Ranks numbers by frecency: every call adds one to a number's score, and scores decay
+ * exponentially with the given half-life.
+ * <p>
+ * Scores are kept in the log domain relative to a fixed origin, as
+ * {@code ln(score at time t) + t / tau}, which does not change as time passes. Decay therefore
+ * never has to be applied to every entry, and recording a call only ever raises the value of the
+ * called number. That makes the top-K list exactly maintainable on each call, so reading it costs
+ * O(K).
+ * <p>
+ * Numbers are keyed by {@link PackedNumberStore#packToLong}, and stored in open-addressing
+ * primitive arrays. Numbers too long to pack are ignored. This class is not thread safe.
+ */
+public final class FrecencyRanker {
+    private static final int FILE_MAGIC = 0x46524543; // "FREC"
+    private static final int FILE_VERSION = 1;
+
+    /** Marks a free slot. This is the packed empty number, which is never recorded. */
+    private static final long EMPTY_KEY = 0;
+
+    private final double mTauMillis;
+    private final int mTopCapacity;
+
+    private long[] mKeys = new long[64];
+    private double[] mValues = new double[64];
+    private int mSize;
+
+    /** Keys and values of the best entries, best first. */
+    private final long[] mTopKeys;
+    private final double[] mTopValues;
+    private int mTopSize;
+
+    /**
+     * @param halfLifeMillis The time after which the contribution of a call is halved.
+     * @param topCapacity The maximum number of entries {@link #getTop} can return.
+     */
+    public FrecencyRanker(long halfLifeMillis, int topCapacity) {
+        mTauMillis = halfLifeMillis / Math.log(2);
+        mTopCapacity = topCapacity;
+        mTopKeys = new long[topCapacity];
+        mTopValues = new double[topCapacity];
+    }
+
+    /** Returns the number of distinct numbers recorded. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Removes all entries. */
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY_KEY);
+        mSize = 0;
+        mTopSize = 0;
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param number The number called; characters other than dial characters are ignored.
+     * @param timeMillis The time of the call.
+     */
+    public void recordCall(CharSequence number, long timeMillis) {
+        final long key = PackedNumberStore.packToLong(number);
+        if (key == PackedNumberStore.NOT_PACKABLE || key == EMPTY_KEY) {
+            return;
+        }
+        final double event = timeMillis / mTauMillis;
+        final int slot = findSlot(key);
+        final double value;
+        if (mKeys[slot] == EMPTY_KEY) {
+            value = event;
+            mKeys[slot] = key;
+            mValues[slot] = value;
+            if (++mSize * 4 > mKeys.length * 3) {
+                rehash(mKeys.length * 2);
+            }
+        } else {
+            value = logAddExp(mValues[slot], event);
+            mValues[slot] = value;
+        }
+        updateTop(key, value);
+    }
+
+    /** Returns the current score of a number, or 0 if it has not been called. */
+    public double getScore(CharSequence number, long nowMillis) {
+        final long key = PackedNumberStore.packToLong(number);
+        if (key == PackedNumberStore.NOT_PACKABLE) {
+            return 0;
+        }
+        final int slot = findSlot(key);
+        return mKeys[slot] == EMPTY_KEY ? 0 : Math.exp(mValues[slot] - nowMillis / mTauMillis);
+    }
+
+    /**
+     * Writes the packed keys of the highest ranked numbers, best first, in O(K). Use
+     * {@link PackedNumberStore#unpackLong} to get the numbers.
+     *
+     * @return The number of keys written.
+     */
+    public int getTop(long[] keys) {
+        final int count = Math.min(keys.length, mTopSize);
+        System.arraycopy(mTopKeys, 0, keys, 0, count);
+        return count;
+    }
+
+    /** Returns the highest ranked numbers, best first. */
+    public String[] getTopNumbers(int max) {
+        final int count = Math.min(max, mTopSize);
+        final String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = PackedNumberStore.unpackLong(mTopKeys[i]);
+        }
+        return numbers;
+    }
+
+    /** Writes all entries, so that they can be restored without reading the call log again. */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeDouble(mTauMillis);
+        out.writeInt(mSize);
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] != EMPTY_KEY) {
+                out.writeLong(mKeys[i]);
+                out.writeDouble(mValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces all entries with those written by {@link #writeTo}.
+     *
+     * @throws IOException If the data is malformed or was written with another half-life.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION
+                || in.readDouble() != mTauMillis) {
+            throw new IOException("Incompatible frecency data");
+        }
+        final int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid frecency data size " + size);
+        }
+        clear();
+        int capacity = mKeys.length;
+        while (size * 4 > capacity * 3) {
+            capacity *= 2;
+        }
+        if (capacity != mKeys.length) {
+            mKeys = new long[capacity];
+            mValues = new double[capacity];
+        }
+        for (int i = 0; i < size; i++) {
+            final long key = in.readLong();
+            final double value = in.readDouble();
+            final int slot = findSlot(key);
+            if (mKeys[slot] == EMPTY_KEY) {
+                mKeys[slot] = key;
+                mValues[slot] = value;
+                mSize++;
+                updateTop(key, value);
+            }
+        }
+    }
+
+    private int findSlot(long key) {
+        final int mask = mKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (mKeys[slot] != EMPTY_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        final long[] keys = mKeys;
+        final double[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new double[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY_KEY) {
+                final int slot = findSlot(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    /** Moves {@code key} to its place in the top list after its value rose to {@code value}. */
+    private void updateTop(long key, double value) {
+        int position = -1;
+        for (int i = 0; i < mTopSize; i++) {
+            if (mTopKeys[i] == key) {
+                position = i;
+                break;
+            }
+        }
+        if (position == -1) {
+            if (mTopSize < mTopCapacity) {
+                position = mTopSize++;
+            } else if (mTopCapacity > 0 && value > mTopValues[mTopSize - 1]) {
+                // Evict the lowest entry. It can only come back by being called again, which
+                // raises its value and brings it back here.
+                position = mTopSize - 1;
+            } else {
+                return;
+            }
+        }
+        while (position > 0 && mTopValues[position - 1] < value) {
+            mTopKeys[position] = mTopKeys[position - 1];
+            mTopValues[position] = mTopValues[position - 1];
+            position--;
+        }
+        mTopKeys[position] = key;
+        mTopValues[position] = value;
+    }
+
+    private static double logAddExp(double a, double b) {
+        final double max = Math.max(a, b);
+        return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+    }
+
+    private static int mix(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
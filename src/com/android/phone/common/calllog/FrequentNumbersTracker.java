@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog.Calls;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps a {@link FrecencyRanker} of outgoing calls up to date and persisted, for showing the most
+ * frequently dialed numbers without aggregating the call log.
+ * <p>
+ * The scores are saved to app storage together with the call log high-water mark, so that after
+ * a restart only the calls made since the last save are read. All methods must be called, and the
+ * listener is invoked, on the UI thread.
+ */
+public class FrequentNumbersTracker implements CallLogDeltaSync.Listener {
+    private static final String TAG = FrequentNumbersTracker.class.getSimpleName();
+
+    private static final String FILE_NAME = "frequent_numbers";
+    private static final long HALF_LIFE_MILLIS = 14 * DateUtils.DAY_IN_MILLIS;
+
+    /** Notified when the ranking changes. */
+    public interface Listener {
+        void onFrequentNumbersChanged(FrecencyRanker ranker);
+    }
+
+    private final File mFile;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    private final int mMaxNumbers;
+    private final CallLogDeltaSync mSync;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private FrecencyRanker mRanker;
+    /** The ranker being rebuilt after a reset, which replaces mRanker once complete, or null. */
+    private FrecencyRanker mNextRanker;
+
+    private boolean mLoading;
+    private boolean mLoaded;
+    private boolean mStarted;
+    private boolean mSavePending;
+    /** Incremented for each save, so that a save overtaken by a newer one is skipped. */
+    private int mSaveGeneration;
+    /** The generation of the last save written to the file, guarded by mFile. */
+    private int mWrittenGeneration;
+
+    /**
+     * @param context The context used to access the call log and app storage.
+     * @param executor The executor for call log and file access.
+     * @param maxNumbers The maximum number of top numbers to keep ranked.
+     * @param listener The listener notified when the ranking changes, may be null.
+     */
+    public FrequentNumbersTracker(Context context, Executor executor, int maxNumbers,
+            Listener listener) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mExecutor = executor;
+        mListener = listener;
+        mMaxNumbers = maxNumbers;
+        mRanker = new FrecencyRanker(HALF_LIFE_MILLIS, maxNumbers);
+        mSync = new CallLogDeltaSync(context, executor, this);
+    }
+
+    /**
+     * Loads the saved scores, then applies calls made since they were saved and keeps observing
+     * the call log.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        if (mLoaded) {
+            mSync.start();
+        } else if (!mLoading) {
+            mLoading = true;
+            new LoadTask().executeOnExecutor(mExecutor);
+        }
+    }
+
+    /** Stops observing the call log. */
+    public void stop() {
+        mStarted = false;
+        mSync.stop();
+    }
+
+    /** Returns the ranker, which is empty until the saved scores have been loaded. */
+    public FrecencyRanker getRanker() {
+        return mRanker;
+    }
+
+    @Override
+    public void onCallLogRowsAdded(RecentCallBatch batch) {
+        final FrecencyRanker ranker = mNextRanker != null ? mNextRanker : mRanker;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getType(i) == Calls.OUTGOING_TYPE) {
+                ranker.recordCall(batch.getNumber(i), batch.getDate(i));
+            }
+        }
+        if (mNextRanker == null) {
+            onRankingChanged();
+        }
+    }
+
+    @Override
+    public void onCallLogReset() {
+        // The current ranking stays in use, and saved, until the new one holds the whole log.
+        mNextRanker = new FrecencyRanker(HALF_LIFE_MILLIS, mMaxNumbers);
+    }
+
+    @Override
+    public void onCallLogSynced() {
+        if (mNextRanker != null) {
+            mRanker = mNextRanker;
+            mNextRanker = null;
+            onRankingChanged();
+        }
+    }
+
+    private void onRankingChanged() {
+        if (mListener != null) {
+            mListener.onFrequentNumbersChanged(mRanker);
+        }
+        scheduleSave();
+    }
+
+    /** Saves the scores once the current batch of changes has been applied. */
+    private void scheduleSave() {
+        if (mSavePending) {
+            return;
+        }
+        mSavePending = true;
+        // Posting after the sync's pending progress updates coalesces a burst of pages.
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSavePending = false;
+                if (mNextRanker != null) {
+                    // The high-water mark belongs to the rebuilt ranker; save once it is swapped.
+                    return;
+                }
+                final byte[] data;
+                try {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    final DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeLong(mSync.getHighWaterMark());
+                    out.writeInt(mSync.getRowCount());
+                    mRanker.writeTo(out);
+                    out.flush();
+                    data = bytes.toByteArray();
+                } catch (IOException e) {
+                    return;
+                }
+                final int generation = ++mSaveGeneration;
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeFile(data, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void writeFile(byte[] data, int generation) {
+        synchronized (mFile) {
+            if (generation <= mWrittenGeneration) {
+                // The executor may run saves out of order; a newer one has been written already.
+                return;
+            }
+            mWrittenGeneration = generation;
+            final File temp = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                out.write(data);
+                out.getFD().sync();
+                out.close();
+                out = null;
+                if (!temp.renameTo(mFile)) {
+                    Log.w(TAG, "Failed to save frequent numbers");
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save frequent numbers", e);
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // Ignore.
+                    }
+                }
+            }
+        }
+    }
+
+    /** Reads the saved scores into a new ranker off the UI thread. */
+    private class LoadTask extends AsyncTask<Void, Void, FrecencyRanker> {
+        private long mHighWaterId = -1;
+        private int mRowCount;
+
+        @Override
+        protected FrecencyRanker doInBackground(Void... params) {
+            final FrecencyRanker ranker = new FrecencyRanker(HALF_LIFE_MILLIS, mMaxNumbers);
+            DataInputStream in = null;
+            try {
+                synchronized (mFile) {
+                    in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(mFile)));
+                    mHighWaterId = in.readLong();
+                    mRowCount = in.readInt();
+                    ranker.readFrom(in);
+                }
+                return ranker;
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable frequent numbers", e);
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Ignore.
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(FrecencyRanker loaded) {
+            mLoading = false;
+            mLoaded = true;
+            if (loaded != null) {
+                mRanker = loaded;
+                mSync.setHighWaterMark(mHighWaterId, mRowCount);
+                if (mListener != null) {
+                    mListener.onFrequentNumbersChanged(mRanker);
+                }
+            }
+            if (mStarted) {
+                mSync.start();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+/**
+ * Immutable index of distinct phone numbers, sorted on their packed form so that all numbers
+ * sharing a prefix occupy a contiguous range.
+ * <p>
+ * A {@link Matcher} narrows that range one dial character at a time: appending a digit only
+ * searches the range matched by the previous digits, and deleting one pops back to the previous
+ * range, so each keystroke costs a binary search over the current matches.
+ * <p>
+ * Indices are built off the UI thread with {@link #build} or {@link #merge}; once built they can
+ * be shared freely between threads.
+ */
+public final class NumberPrefixIndex {
+    /** An index without any number. */
+    public static final NumberPrefixIndex EMPTY = build(new PackedNumberStore(1));
+
+    private final PackedNumberStore mStore;
+    /** Store indices of the distinct numbers, in packed order. */
+    private final int[] mSorted;
+
+    private NumberPrefixIndex(PackedNumberStore store, int[] sorted) {
+        mStore = store;
+        mSorted = sorted;
+    }
+
+    /**
+     * Builds an index of the numbers in the given store. The store must not be modified
+     * afterwards.
+     */
+    public static NumberPrefixIndex build(PackedNumberStore store) {
+        final int[] order = new int[store.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sort(store, order, new int[order.length], 0, order.length);
+
+        // Drop duplicates, which are adjacent once sorted.
+        int distinct = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (distinct == 0 || !store.equals(order[distinct - 1], order[i])) {
+                order[distinct++] = order[i];
+            }
+        }
+        final int[] sorted = new int[distinct];
+        System.arraycopy(order, 0, sorted, 0, distinct);
+        return new NumberPrefixIndex(store, sorted);
+    }
+
+    /**
+     * Builds an index holding the numbers of an existing index and those of {@code added}. Neither
+     * the existing index nor {@code added} is modified.
+     */
+    public static NumberPrefixIndex merge(NumberPrefixIndex index, PackedNumberStore added) {
+        final PackedNumberStore store = new PackedNumberStore(index.size() + added.size());
+        for (int i = 0; i < index.mSorted.length; i++) {
+            store.add(index.mStore, index.mSorted[i]);
+        }
+        for (int i = 0; i < added.size(); i++) {
+            store.add(added, i);
+        }
+        return build(store);
+    }
+
+    /** Returns the number of distinct numbers in the index. */
+    public int size() {
+        return mSorted.length;
+    }
+
+    /** Returns the number at the given position of the sorted index. */
+    public String getNumber(int position) {
+        return mStore.getNumber(mSorted[position]);
+    }
+
+    /** Returns a new matcher, initially matching every number. */
+    public Matcher newMatcher() {
+        return new Matcher();
+    }
+
+    /**
+     * Incremental prefix search over the index. Not thread safe; use one matcher per thread.
+     */
+    public final class Matcher {
+        /** Range bounds for each typed dial character; entry 0 is the whole index. */
+        private int[] mLow = new int[16];
+        private int[] mHigh = new int[16];
+        private int[] mCodes = new int[16];
+        private int mDepth;
+
+        private Matcher() {
+            mHigh[0] = mSorted.length;
+        }
+
+        /**
+         * Narrows the matches to the numbers continuing with {@code c}. Characters which are not
+         * dial characters are ignored.
+         */
+        public void append(char c) {
+            final int code = PackedNumberStore.encode(c);
+            if (code == PackedNumberStore.NOT_A_DIAL_CHAR) {
+                return;
+            }
+            if (mDepth + 1 == mLow.length) {
+                mLow = grow(mLow);
+                mHigh = grow(mHigh);
+                mCodes = grow(mCodes);
+            }
+            final int low = mLow[mDepth];
+            final int high = mHigh[mDepth];
+            mCodes[mDepth] = code;
+            mDepth++;
+            mLow[mDepth] = firstWithRankAtLeast(low, high, mDepth - 1, code);
+            mHigh[mDepth] = firstWithRankAtLeast(mLow[mDepth], high, mDepth - 1, code + 1);
+        }
+
+        /** Removes the last dial character, restoring the matches from before it was appended. */
+        public void removeLast() {
+            if (mDepth > 0) {
+                mDepth--;
+            }
+        }
+
+        /**
+         * Matches the dial characters of {@code query}. Only the characters which differ from the
+         * previous query are searched, so typing or deleting a digit costs a single step.
+         */
+        public void setQuery(CharSequence query) {
+            int common = 0;
+            int position = 0;
+            for (int i = 0; i < query.length(); i++) {
+                final int code = PackedNumberStore.encode(query.charAt(i));
+                if (code == PackedNumberStore.NOT_A_DIAL_CHAR) {
+                    continue;
+                }
+                if (position == common && common < mDepth && mCodes[common] == code) {
+                    common++;
+                }
+                position++;
+            }
+            mDepth = common;
+            int skipped = 0;
+            for (int i = 0; i < query.length(); i++) {
+                final char c = query.charAt(i);
+                if (PackedNumberStore.encode(c) == PackedNumberStore.NOT_A_DIAL_CHAR) {
+                    continue;
+                }
+                if (skipped < common) {
+                    skipped++;
+                } else {
+                    append(c);
+                }
+            }
+        }
+
+        /** Returns the number of dial characters matched. */
+        public int getDepth() {
+            return mDepth;
+        }
+
+        /** Returns the number of numbers starting with the matched characters. */
+        public int getMatchCount() {
+            return mHigh[mDepth] - mLow[mDepth];
+        }
+
+        /** Returns the i-th matching number, in dial character order. */
+        public String getMatch(int i) {
+            return getNumber(mLow[mDepth] + i);
+        }
+
+        /**
+         * Returns the first position in [low, high) whose character at {@code depth} has a code of
+         * at least {@code code}. Numbers ending before {@code depth} rank lowest.
+         */
+        private int firstWithRankAtLeast(int low, int high, int depth, int code) {
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final int index = mSorted[mid];
+                final int rank = mStore.length(index) > depth ? mStore.codeAt(index, depth) : -1;
+                if (rank < code) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static int[] grow(int[] array) {
+        final int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /** Merge sort of store indices, to avoid boxing them for a comparator. */
+    private static void sort(PackedNumberStore store, int[] order, int[] scratch, int from,
+            int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sort(store, order, scratch, from, mid);
+        sort(store, order, scratch, mid, to);
+        if (store.compare(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && store.compare(scratch[left], scratch[right]) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+}
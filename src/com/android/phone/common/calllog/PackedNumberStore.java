@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import java.util.Arrays;
+
+/**
+ * Compact store for phone numbers, holding each dial character in a 4-bit nibble.
+ * <p>
+ * Numbers are packed into a single shared {@code long[]} arena, 16 characters per word, with the
+ * first character in the most significant nibble. Each number starts on a word boundary, so
+ * equality, prefix and ordering checks compare whole words and never decode the numbers. Only
+ * dial characters (0-9, *, #, +, pause and wait) are stored; formatting characters such as
+ * spaces, dashes and parentheses are dropped when a number is added.
+ * <p>
+ * Numbers are referred to by the index returned by {@link #add(CharSequence)}. This class is not
+ * thread safe.
+ */
+public final class PackedNumberStore {
+    /** Returned by {@link #encode(char)} for characters which are not dial characters. */
+    public static final int NOT_A_DIAL_CHAR = -1;
+
+    /** Returned by {@link #packToLong(CharSequence)} for numbers which do not fit a long. */
+    public static final long NOT_PACKABLE = -1L;
+
+    /** Maximum number of dial characters {@link #packToLong(CharSequence)} can hold. */
+    public static final int MAX_PACKED_LONG_LENGTH = 15;
+
+    /** Maximum number of dial characters kept for a number in the store. */
+    public static final int MAX_LENGTH = Short.MAX_VALUE;
+
+    private static final int NIBBLES_PER_WORD = 16;
+    private static final char[] DIAL_CHARS = new char[] {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '*', '#', '+', ',', ';' };
+
+    private long[] mArena;
+    private int mWordCount;
+    private int[] mOffsets;
+    private short[] mLengths;
+    private int mSize;
+
+    public PackedNumberStore() {
+        this(16);
+    }
+
+    /** @param capacity The number of numbers to allocate room for up front. */
+    public PackedNumberStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mArena = new long[capacity];
+        mOffsets = new int[capacity];
+        mLengths = new short[capacity];
+    }
+
+    /**
+     * Returns the nibble code of a dial character, or {@link #NOT_A_DIAL_CHAR}. The wait and pause
+     * characters are those of {@link android.telephony.PhoneNumberUtils}.
+     */
+    public static int encode(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        switch (c) {
+            case '*': return 10;
+            case '#': return 11;
+            case '+': return 12;
+            case ',': return 13;
+            case ';': return 14;
+            default: return NOT_A_DIAL_CHAR;
+        }
+    }
+
+    /** Returns the dial character of a nibble code returned by {@link #encode(char)}. */
+    public static char decode(int code) {
+        return DIAL_CHARS[code];
+    }
+
+    /**
+     * Packs a short number into a single long, suitable as a key for primitive maps. The length
+     * is kept in the top nibble so that numbers differing only by leading zeros stay distinct.
+     *
+     * @return The packed number, or {@link #NOT_PACKABLE} if it has more than
+     *         {@link #MAX_PACKED_LONG_LENGTH} dial characters.
+     */
+    public static long packToLong(CharSequence number) {
+        long packed = 0;
+        int length = 0;
+        for (int i = 0; i < number.length(); i++) {
+            final int code = encode(number.charAt(i));
+            if (code == NOT_A_DIAL_CHAR) {
+                continue;
+            }
+            if (length == MAX_PACKED_LONG_LENGTH) {
+                return NOT_PACKABLE;
+            }
+            packed |= (long) code << (4 * (MAX_PACKED_LONG_LENGTH - 1 - length));
+            length++;
+        }
+        return packed | ((long) length << (4 * MAX_PACKED_LONG_LENGTH));
+    }
+
+    /** Unpacks a number packed by {@link #packToLong(CharSequence)}. */
+    public static String unpackLong(long packed) {
+        final int length = (int) (packed >>> (4 * MAX_PACKED_LONG_LENGTH));
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = decode((int) (packed >>> (4 * (MAX_PACKED_LONG_LENGTH - 1 - i))) & 0xf);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Adds a number to the store. Characters which are not dial characters are skipped, and
+     * characters beyond {@link #MAX_LENGTH} are dropped.
+     *
+     * @return The index of the number.
+     */
+    public int add(CharSequence number) {
+        int length = 0;
+        for (int i = 0; i < number.length(); i++) {
+            if (encode(number.charAt(i)) != NOT_A_DIAL_CHAR) {
+                length++;
+            }
+        }
+        length = Math.min(length, MAX_LENGTH);
+
+        final int words = wordsFor(length);
+        ensureArenaCapacity(mWordCount + words);
+        if (mSize == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+            mLengths = Arrays.copyOf(mLengths, mSize * 2);
+        }
+
+        final int offset = mWordCount;
+        int position = 0;
+        for (int i = 0; i < number.length() && position < length; i++) {
+            final int code = encode(number.charAt(i));
+            if (code != NOT_A_DIAL_CHAR) {
+                mArena[offset + position / NIBBLES_PER_WORD] |= nibble(code, position);
+                position++;
+            }
+        }
+        mWordCount += words;
+        mOffsets[mSize] = offset;
+        mLengths[mSize] = (short) length;
+        return mSize++;
+    }
+
+    /**
+     * Copies a number from another store without decoding it.
+     *
+     * @return The index of the number in this store.
+     */
+    public int add(PackedNumberStore other, int otherIndex) {
+        final int length = other.mLengths[otherIndex];
+        final int words = wordsFor(length);
+        ensureArenaCapacity(mWordCount + words);
+        if (mSize == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+            mLengths = Arrays.copyOf(mLengths, mSize * 2);
+        }
+        System.arraycopy(other.mArena, other.mOffsets[otherIndex], mArena, mWordCount, words);
+        mOffsets[mSize] = mWordCount;
+        mLengths[mSize] = (short) length;
+        mWordCount += words;
+        return mSize++;
+    }
+
+    /** Returns the number of numbers in the store. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Removes all numbers, keeping the allocated memory. */
+    public void clear() {
+        Arrays.fill(mArena, 0, mWordCount, 0);
+        mWordCount = 0;
+        mSize = 0;
+    }
+
+    /** Returns the number of dial characters of the number at the given index. */
+    public int length(int index) {
+        return mLengths[index];
+    }
+
+    /** Returns the dial character at the given position of the number at the given index. */
+    public char charAt(int index, int position) {
+        return decode(codeAt(index, position));
+    }
+
+    /** Returns the nibble code at the given position of the number at the given index. */
+    public int codeAt(int index, int position) {
+        final long word = mArena[mOffsets[index] + position / NIBBLES_PER_WORD];
+        return (int) (word >>> shift(position)) & 0xf;
+    }
+
+    /** Returns the number at the given index as a string of dial characters. */
+    public String getNumber(int index) {
+        final int length = mLengths[index];
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(index, i);
+        }
+        return new String(chars);
+    }
+
+    /** Returns true if the numbers at the two indices are identical. */
+    public boolean equals(int index, int otherIndex) {
+        return mLengths[index] == mLengths[otherIndex]
+                && prefixMatches(index, otherIndex, mLengths[index]);
+    }
+
+    /** Returns true if the number at {@code index} starts with the one at {@code prefixIndex}. */
+    public boolean startsWith(int index, int prefixIndex) {
+        return mLengths[index] >= mLengths[prefixIndex]
+                && prefixMatches(index, prefixIndex, mLengths[prefixIndex]);
+    }
+
+    /**
+     * Returns true if the number at the given index consists of the dial characters of
+     * {@code number}, ignoring any other characters in it.
+     */
+    public boolean equalsNumber(int index, CharSequence number) {
+        return matchPrefix(index, number) == mLengths[index];
+    }
+
+    /**
+     * Returns true if the number at the given index starts with the dial characters of
+     * {@code prefix}, ignoring any other characters in it.
+     */
+    public boolean startsWith(int index, CharSequence prefix) {
+        return matchPrefix(index, prefix) != -1;
+    }
+
+    /**
+     * Compares the numbers at the two indices in dial character order, shorter numbers first
+     * when one is a prefix of the other.
+     */
+    public int compare(int index, int otherIndex) {
+        final int length = mLengths[index];
+        final int otherLength = mLengths[otherIndex];
+        final int common = Math.min(length, otherLength);
+        final int offset = mOffsets[index];
+        final int otherOffset = mOffsets[otherIndex];
+        for (int w = 0; w < wordsFor(common); w++) {
+            final long mask = maskFor(common, w);
+            final long a = mArena[offset + w] & mask;
+            final long b = mArena[otherOffset + w] & mask;
+            if (a != b) {
+                // Unsigned comparison, so that codes in the top nibble order correctly.
+                return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE) ? -1 : 1;
+            }
+        }
+        return length - otherLength;
+    }
+
+    /** Returns the number of bytes of the arena in use, for diagnostics. */
+    public int getArenaBytes() {
+        return mWordCount * 8;
+    }
+
+    private boolean prefixMatches(int index, int otherIndex, int length) {
+        final int offset = mOffsets[index];
+        final int otherOffset = mOffsets[otherIndex];
+        for (int w = 0; w < wordsFor(length); w++) {
+            final long mask = maskFor(length, w);
+            if ((mArena[offset + w] & mask) != (mArena[otherOffset + w] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches the dial characters of {@code prefix} against the number at the given index.
+     *
+     * @return The number of dial characters in the prefix, or -1 on a mismatch or if the number
+     *         is shorter than the prefix.
+     */
+    private int matchPrefix(int index, CharSequence prefix) {
+        final int length = mLengths[index];
+        final int offset = mOffsets[index];
+        int position = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            final int code = encode(prefix.charAt(i));
+            if (code == NOT_A_DIAL_CHAR) {
+                continue;
+            }
+            if (position == length) {
+                return -1;
+            }
+            final long word = mArena[offset + position / NIBBLES_PER_WORD];
+            if (((word >>> shift(position)) & 0xf) != code) {
+                return -1;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private void ensureArenaCapacity(int words) {
+        if (words > mArena.length) {
+            mArena = Arrays.copyOf(mArena, Math.max(words, mArena.length * 2));
+        }
+    }
+
+    private static int wordsFor(int length) {
+        return (length + NIBBLES_PER_WORD - 1) / NIBBLES_PER_WORD;
+    }
+
+    private static int shift(int position) {
+        return 4 * (NIBBLES_PER_WORD - 1 - position % NIBBLES_PER_WORD);
+    }
+
+    private static long nibble(int code, int position) {
+        return (long) code << shift(position);
+    }
+
+    /** Returns the mask covering the first {@code length} nibbles within word {@code w}. */
+    private static long maskFor(int length, int w) {
+        final int nibbles = Math.min(NIBBLES_PER_WORD, length - w * NIBBLES_PER_WORD);
+        return nibbles == NIBBLES_PER_WORD ? -1L : ~(-1L >>> (4 * nibbles));
+    }
+}
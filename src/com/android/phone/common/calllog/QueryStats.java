@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import java.io.PrintWriter;
+
+/**
+ * Counters and latency histograms for call log queries.
+ * <p>
+ * Latencies are counted in power-of-two millisecond buckets: bucket 0 holds latencies under 1ms,
+ * bucket i holds latencies in [2^(i-1), 2^i) ms, and the last bucket holds everything longer.
+ * Recording never allocates. This class is not thread safe; it is updated on the UI thread.
+ */
+public final class QueryStats {
+    /** Number of histogram buckets; the last one holds latencies of 2^(n-2) ms and more. */
+    public static final int BUCKET_COUNT = 14;
+
+    private final long[] mQueueWait = new long[BUCKET_COUNT];
+    private final long[] mExecution = new long[BUCKET_COUNT];
+    private long mQueryCount;
+    private long mCancelledQueryCount;
+    private long mStaleCallbackCount;
+
+    /** Records a query which ran to completion. */
+    public void recordQuery(long queueWaitMillis, long executionMillis) {
+        mQueueWait[bucketFor(queueWaitMillis)]++;
+        mExecution[bucketFor(executionMillis)]++;
+        mQueryCount++;
+    }
+
+    /** Records a query which was cancelled before it completed. */
+    public void recordCancelledQuery() {
+        mCancelledQueryCount++;
+    }
+
+    /** Records a result which arrived after its request had been cancelled. */
+    public void recordStaleCallback() {
+        mStaleCallbackCount++;
+    }
+
+    /** Returns the number of queries which ran to completion. */
+    public long getQueryCount() {
+        return mQueryCount;
+    }
+
+    /** Returns the number of queries cancelled before completing. */
+    public long getCancelledQueryCount() {
+        return mCancelledQueryCount;
+    }
+
+    /** Returns the number of results dropped because their request had been cancelled. */
+    public long getStaleCallbackCount() {
+        return mStaleCallbackCount;
+    }
+
+    /** Returns the number of queries which waited in the executor queue for the given bucket. */
+    public long getQueueWaitCount(int bucket) {
+        return mQueueWait[bucket];
+    }
+
+    /** Returns the number of queries whose execution time falls in the given bucket. */
+    public long getExecutionCount(int bucket) {
+        return mExecution[bucket];
+    }
+
+    /** Returns the lower bound, in milliseconds, of the given bucket. */
+    public static long getBucketLowerBound(int bucket) {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    /** Resets all counters. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mQueueWait[i] = 0;
+            mExecution[i] = 0;
+        }
+        mQueryCount = 0;
+        mCancelledQueryCount = 0;
+        mStaleCallbackCount = 0;
+    }
+
+    /** Prints the counters and histograms, e.g. from a dump() method. */
+    public void dump(String prefix, PrintWriter pw) {
+        pw.println(prefix + "queries=" + mQueryCount + " cancelled=" + mCancelledQueryCount
+                + " staleCallbacks=" + mStaleCallbackCount);
+        pw.println(prefix + "queueWait(ms)=" + histogramToString(mQueueWait));
+        pw.println(prefix + "execution(ms)=" + histogramToString(mExecution));
+    }
+
+    private static String histogramToString(long[] counts) {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(i == counts.length - 1 ? ">=" : "<").append(
+                    i == counts.length - 1 ? getBucketLowerBound(i) : getBucketLowerBound(i + 1));
+            sb.append(": ").append(counts[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static int bucketFor(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        final int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.CallLog.Calls;
+
+/**
+ * A page of call log rows, read with a minimal projection and copied out of the cursor so that
+ * the cursor window can be released before the rows are handed to the UI.
+ */
+public final class RecentCallBatch {
+    private static final String[] PROJECTION = new String[] {
+            Calls._ID,
+            Calls.NUMBER,
+            Calls.DATE,
+            Calls.TYPE,
+    };
+    private static final int ID = 0;
+    private static final int NUMBER = 1;
+    private static final int DATE = 2;
+    private static final int TYPE = 3;
+
+    private static final String NEWEST_FIRST = Calls.DATE + " DESC, " + Calls._ID + " DESC";
+    private static final String OLDER_THAN_SELECTION = Calls.DATE + " < ? OR (" + Calls.DATE
+            + " = ? AND " + Calls._ID + " < ?)";
+
+    private static final String OLDEST_ID_FIRST = Calls._ID + " ASC";
+    private static final String NEWER_THAN_SELECTION = Calls._ID + " > ?";
+    private static final String NOT_NEWER_THAN_SELECTION = Calls._ID + " <= ?";
+
+    private final long[] mIds;
+    private final String[] mNumbers;
+    private final long[] mDates;
+    private final int[] mTypes;
+
+    private RecentCallBatch(int size) {
+        mIds = new long[size];
+        mNumbers = new String[size];
+        mDates = new long[size];
+        mTypes = new int[size];
+    }
+
+    /** Returns the number of rows in this batch. */
+    public int size() {
+        return mIds.length;
+    }
+
+    /** Returns the {@link Calls#_ID} of the row at the given position. */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /** Returns the {@link Calls#NUMBER} of the row at the given position, never null. */
+    public String getNumber(int position) {
+        return mNumbers[position];
+    }
+
+    /** Returns the {@link Calls#DATE} of the row at the given position. */
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    /** Returns the {@link Calls#TYPE} of the row at the given position. */
+    public int getType(int position) {
+        return mTypes[position];
+    }
+
+    /**
+     * Adds the numbers of this batch to the given store, in order, so that they can be kept
+     * after the batch is dropped without holding on to the strings.
+     *
+     * @return The store index of the first number; the others follow consecutively.
+     */
+    public int addNumbersTo(PackedNumberStore store) {
+        final int first = store.size();
+        for (String number : mNumbers) {
+            store.add(number);
+        }
+        return first;
+    }
+
+    /**
+     * Reads the page of calls that directly follows the given row when the call log is sorted
+     * newest first. Paging on (date, id) rather than an offset keeps the cost of each page
+     * independent of how deep into the call log it is.
+     *
+     * @param resolver The content resolver to query.
+     * @param date The {@link Calls#DATE} of the last row of the previous page, or
+     *         {@link Long#MAX_VALUE} to read the first page.
+     * @param id The {@link Calls#_ID} of the last row of the previous page.
+     * @param limit The maximum number of rows to read.
+     * @return The rows, or null if the call log could not be queried.
+     */
+    public static RecentCallBatch queryOlderThan(ContentResolver resolver, long date, long id,
+            int limit) {
+        final String selection;
+        final String[] selectionArgs;
+        if (date == Long.MAX_VALUE) {
+            selection = null;
+            selectionArgs = null;
+        } else {
+            selection = OLDER_THAN_SELECTION;
+            selectionArgs = new String[] {
+                    String.valueOf(date), String.valueOf(date), String.valueOf(id) };
+        }
+        return query(resolver, selection, selectionArgs, NEWEST_FIRST, limit);
+    }
+
+    /**
+     * Reads the rows inserted after the given row, in insertion order.
+     *
+     * @param resolver The content resolver to query.
+     * @param id The highest {@link Calls#_ID} already read, or -1 to start from the beginning.
+     * @param limit The maximum number of rows to read.
+     * @return The rows, or null if the call log could not be queried.
+     */
+    public static RecentCallBatch queryNewerThan(ContentResolver resolver, long id, int limit) {
+        return query(resolver, NEWER_THAN_SELECTION, new String[] { String.valueOf(id) },
+                OLDEST_ID_FIRST, limit);
+    }
+
+    /**
+     * Returns the {@link Calls#_ID} of the row at the given position among the rows with an
+     * {@link Calls#_ID} up to and including the given one, in insertion order. Only that row is
+     * read, so this is a cheap way to tell whether rows that were already read are gone.
+     *
+     * @return The {@link Calls#_ID}, 0 if there are not that many rows, or -1 if the call log
+     *         could not be queried.
+     */
+    public static long getIdAtPosition(ContentResolver resolver, long id, int position) {
+        final Uri uri = Calls.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Calls.LIMIT_PARAM_KEY, "1")
+                .appendQueryParameter(Calls.OFFSET_PARAM_KEY, String.valueOf(position))
+                .build();
+        final Cursor cursor = resolver.query(uri, new String[] { Calls._ID },
+                NOT_NEWER_THAN_SELECTION, new String[] { String.valueOf(id) }, OLDEST_ID_FIRST);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the {@link Calls#_ID}s of the rows up to and including the given one, in insertion
+     * order, or null if the call log could not be queried.
+     */
+    public static long[] queryIdsUpTo(ContentResolver resolver, long id) {
+        final Cursor cursor = resolver.query(Calls.CONTENT_URI, new String[] { Calls._ID },
+                NOT_NEWER_THAN_SELECTION, new String[] { String.valueOf(id) }, OLDEST_ID_FIRST);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            for (int i = 0; i < ids.length && cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static RecentCallBatch query(ContentResolver resolver, String selection,
+            String[] selectionArgs, String sortOrder, int limit) {
+        final Uri uri = Calls.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Calls.LIMIT_PARAM_KEY, String.valueOf(limit))
+                .build();
+        final Cursor cursor = resolver.query(uri, PROJECTION, selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final RecentCallBatch batch = new RecentCallBatch(Math.min(cursor.getCount(), limit));
+            for (int i = 0; i < batch.size() && cursor.moveToNext(); i++) {
+                batch.mIds[i] = cursor.getLong(ID);
+                final String number = cursor.getString(NUMBER);
+                batch.mNumbers[i] = number == null ? "" : number;
+                batch.mDates[i] = cursor.getLong(DATE);
+                batch.mTypes[i] = cursor.getInt(TYPE);
+            }
+            return batch;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -104,6 +104,11 @@ public class DialpadKeyButton extends FrameLayout {
         }
     }
 
+    /** Returns the content description announced in the long-hover state, if any. */
+    CharSequence getLongHoverContentDescription() {
+        return mLongHoverContentDesc;
+    }
+
     @Override
     public void setContentDescription(CharSequence contentDescription) {
         if (mLongHovered) {
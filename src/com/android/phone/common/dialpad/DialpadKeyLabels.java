@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.text.Spannable;
+import android.text.SpannedString;
+import android.text.style.TtsSpan;
+
+import com.android.phone.common.R;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * The numbers, letters and content descriptions of the dialpad keys in one configuration.
+ *
+ * Keys are indexed 0 to 9 for the digits, followed by {@link #STAR} and {@link #POUND}. The
+ * labels of the current configuration are built once and shared by every dialpad; they are only
+ * built again when the configuration changes, since any part of it, such as the locale, the font
+ * scale or the UI mode, may select other resources. Instances are immutable and can be used from
+ * any thread.
+ */
+public final class DialpadKeyLabels {
+    public static final int KEY_COUNT = 12;
+    public static final int STAR = 10;
+    public static final int POUND = 11;
+
+    private static final int[] LETTER_IDS = new int[] {
+        R.string.dialpad_0_letters,
+        R.string.dialpad_1_letters,
+        R.string.dialpad_2_letters,
+        R.string.dialpad_3_letters,
+        R.string.dialpad_4_letters,
+        R.string.dialpad_5_letters,
+        R.string.dialpad_6_letters,
+        R.string.dialpad_7_letters,
+        R.string.dialpad_8_letters,
+        R.string.dialpad_9_letters,
+        R.string.dialpad_star_letters,
+        R.string.dialpad_pound_letters
+    };
+
+    private static DialpadKeyLabels sLabels;
+
+    private final Configuration mConfiguration;
+    private final String[] mNumbers = new String[KEY_COUNT];
+    private final String[] mLetters = new String[KEY_COUNT];
+    private final CharSequence[] mContentDescriptions = new CharSequence[KEY_COUNT];
+    private final CharSequence mVoicemailDescription;
+    private final CharSequence mPlusDescription;
+
+    private DialpadKeyLabels(Resources resources, Configuration configuration) {
+        mConfiguration = new Configuration(configuration);
+        final Locale locale = configuration.locale;
+
+        final NumberFormat nf;
+        // We translate dialpad numbers only for "fa" and not any other locale
+        // ("ar" anybody ?).
+        if ("fa".equals(locale.getLanguage())) {
+            nf = DecimalFormat.getInstance(locale);
+        } else {
+            nf = DecimalFormat.getInstance(Locale.ENGLISH);
+        }
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mLetters[i] = resources.getString(LETTER_IDS[i]);
+            if (i == POUND) {
+                mNumbers[i] = resources.getString(R.string.dialpad_pound_number);
+                mContentDescriptions[i] = mNumbers[i];
+            } else if (i == STAR) {
+                mNumbers[i] = resources.getString(R.string.dialpad_star_number);
+                mContentDescriptions[i] = mNumbers[i];
+            } else {
+                mNumbers[i] = nf.format(i);
+                // The content description is used for Talkback key presses. The number is
+                // separated by a "," to introduce a slight delay. Convert letters into a verbatim
+                // span so that they are read as letters instead of as one word.
+                final String letters = mLetters[i];
+                final Spannable spannable =
+                        Spannable.Factory.getInstance().newSpannable(mNumbers[i] + "," + letters);
+                spannable.setSpan(
+                        (new TtsSpan.VerbatimBuilder(letters)).build(),
+                        mNumbers[i].length() + 1,
+                        mNumbers[i].length() + 1 + letters.length(),
+                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                mContentDescriptions[i] = new SpannedString(spannable);
+            }
+        }
+
+        mVoicemailDescription = resources.getText(R.string.description_voicemail_button);
+        mPlusDescription = resources.getText(R.string.description_image_button_plus);
+    }
+
+    /**
+     * Returns the labels for the configuration of the given resources, building them if the
+     * configuration changed since the last call.
+     */
+    public static synchronized DialpadKeyLabels get(Resources resources) {
+        final Configuration configuration = resources.getConfiguration();
+        if (sLabels == null || sLabels.mConfiguration.diff(configuration) != 0) {
+            sLabels = new DialpadKeyLabels(resources, configuration);
+        }
+        return sLabels;
+    }
+
+    /** The number printed on a key. */
+    public String getNumber(int key) {
+        return mNumbers[key];
+    }
+
+    /** The letters printed under the number of a key. */
+    public String getLetters(int key) {
+        return mLetters[key];
+    }
+
+    /** The content description of a key, with the letters spoken one by one. */
+    public CharSequence getContentDescription(int key) {
+        return mContentDescriptions[key];
+    }
+
+    /** The long-hover description of the one key. */
+    public CharSequence getVoicemailDescription() {
+        return mVoicemailDescription;
+    }
+
+    /** The long-hover description of the zero key. */
+    public CharSequence getPlusDescription() {
+        return mPlusDescription;
+    }
+}
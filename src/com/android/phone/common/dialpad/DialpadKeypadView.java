@@ -0,0 +1,833 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.RippleDrawable;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.util.StateSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+import android.widget.Button;
+
+import com.android.phone.common.R;
+import com.android.phone.common.animation.AnimUtils;
+
+import java.util.Arrays;
+
+/**
+ * Twelve-key keypad drawn by a single view, used by {@link DialpadView} in place of the
+ * {@link DialpadKeyButton} hierarchy of {@code R.layout.dialpad}.
+ *
+ * The keypad lays out, draws and animates the keys itself, and exposes them to accessibility
+ * services as virtual views. Each key is still represented by an empty {@link DialpadKeyButton}
+ * child with the usual key id, which is never shown. The press, click and long click of a key are
+ * forwarded to its child, so that the listeners and content descriptions set on the children with
+ * {@code findViewById} work as with {@code R.layout.dialpad}. The accessibility events of the
+ * children are replaced by those of the virtual views.
+ */
+public class DialpadKeypadView extends ViewGroup {
+    /** Number of keys in the keypad. */
+    public static final int KEY_COUNT = 12;
+
+    /** Key ids, indexed by key. Keys 0 to 9 are the digits, followed by star and pound. */
+    private static final int[] KEY_IDS = new int[] {R.id.zero, R.id.one, R.id.two, R.id.three,
+            R.id.four, R.id.five, R.id.six, R.id.seven, R.id.eight, R.id.nine, R.id.star,
+            R.id.pound};
+    private static final int KEY_ONE = 1;
+    private static final int KEY_STAR = 10;
+    private static final int KEY_POUND = 11;
+
+    /** Keys in the order they are laid out, row by row. */
+    private static final int[] GRID = new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, KEY_STAR, 0, KEY_POUND};
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 4;
+
+    // Horizontal weights of the spaces around the keys and of the keys, as in R.layout.dialpad.
+    private static final int SPACE_WEIGHT = 3;
+    private static final int KEY_WEIGHT = 13;
+
+    private static final int[] STATE_PRESSED = new int[] {
+            android.R.attr.state_pressed, android.R.attr.state_enabled};
+    private static final int[] STATE_ENABLED = new int[] {android.R.attr.state_enabled};
+
+    /** Timeout before switching to long-click accessibility mode, as in DialpadKeyButton. */
+    private static final int LONG_HOVER_TIMEOUT = ViewConfiguration.getLongPressTimeout() * 2;
+    private static final int NO_KEY = -1;
+
+    private final DialpadKeyButton[] mKeys = new DialpadKeyButton[KEY_COUNT];
+    /** Ripple of each key, created when the key is first pressed. */
+    private final RippleDrawable[] mRipples = new RippleDrawable[KEY_COUNT];
+    private ColorStateList mRippleColor;
+    private final Rect[] mKeyBounds = new Rect[KEY_COUNT];
+    private final String[] mNumbers = new String[KEY_COUNT];
+    private final String[] mLetters = new String[KEY_COUNT];
+    private final float[] mLetterWidths = new float[KEY_COUNT];
+
+    private final Paint mNumberPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mStarPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mPoundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLettersPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint.FontMetricsInt mLettersMetrics = new Paint.FontMetricsInt();
+    private final int mNumberMarginBottom;
+    private final int mZeroNumberMarginBottom;
+    private final int mSymbolMarginBottom;
+    private final int mKeyMinHeight;
+    private final Drawable mVoicemailIcon;
+    private final int mVoicemailIconPaddingTop;
+    private boolean mShowVoicemailButton = true;
+
+    // In landscape, the number and letters of a key are side by side, as in R.layout.dialpad_key.
+    private final boolean mIsLandscape;
+    private int mNumberMarginRight;
+    private int mOneNumberMarginRight;
+    private int mSymbolWidth;
+    private int mLettersWidth;
+
+    /** Pointer pressing each key, or NO_KEY. */
+    private final int[] mKeyPointers = new int[KEY_COUNT];
+    private final boolean[] mPressed = new boolean[KEY_COUNT];
+    private final boolean[] mLongPressed = new boolean[KEY_COUNT];
+    private final Runnable[] mLongPressRunnables = new Runnable[KEY_COUNT];
+    private final int mTouchSlop;
+
+    // Show animation.
+    private ValueAnimator mShowAnimator;
+    private final int[] mShowDelays = new int[KEY_COUNT];
+    private final int[] mShowDurations = new int[KEY_COUNT];
+    private float mShowTranslationX;
+    private float mShowTranslationY;
+
+    // Accessibility.
+    private final AccessibilityManager mAccessibilityManager;
+    private KeypadNodeProvider mNodeProvider;
+    private int mAccessibilityFocusedKey = NO_KEY;
+    private final Paint mAccessibilityFocusPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private int mHoveredKey = NO_KEY;
+    private boolean mLongHovered;
+    private Runnable mLongHoverRunnable;
+    private final int[] mTempLocation = new int[2];
+
+    public DialpadKeypadView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setWillNotDraw(false);
+        final Resources res = context.getResources();
+
+        final TypedArray a = context.obtainStyledAttributes(R.styleable.Theme_Dialpad);
+        final int primaryColor = a.getColor(
+                R.styleable.Theme_Dialpad_dialpad_text_color_primary, 0xff000000);
+        final int secondaryColor = a.getColor(
+                R.styleable.Theme_Dialpad_dialpad_text_color_secondary, 0xff000000);
+        final ColorStateList voicemailTint = a.getColorStateList(
+                R.styleable.Theme_Dialpad_dialpad_voicemail_tint);
+        a.recycle();
+
+        final Typeface light = Typeface.create("sans-serif-light", Typeface.NORMAL);
+        mNumberPaint.setTypeface(light);
+        mNumberPaint.setColor(primaryColor);
+        mNumberPaint.setTextSize(res.getDimension(R.dimen.dialpad_key_numbers_size));
+        mNumberPaint.setElegantTextHeight(false);
+        // Star and pound are drawn at 80% opacity, as in R.style.DialpadKeyStarStyle.
+        mStarPaint.setTypeface(light);
+        mStarPaint.setColor(secondaryColor);
+        mStarPaint.setAlpha(Math.round(mStarPaint.getAlpha() * 0.8f));
+        mStarPaint.setTextSize(res.getDimension(R.dimen.dialpad_key_star_size));
+        mStarPaint.setElegantTextHeight(false);
+        mPoundPaint.set(mStarPaint);
+        mPoundPaint.setTextSize(res.getDimension(R.dimen.dialpad_key_pound_size));
+        mLettersPaint.setTypeface(Typeface.create("sans-serif", Typeface.NORMAL));
+        mLettersPaint.setColor(secondaryColor);
+        mLettersPaint.setTextSize(res.getDimension(R.dimen.dialpad_key_letters_size));
+        mLettersPaint.getFontMetricsInt(mLettersMetrics);
+
+        mNumberMarginBottom = res.getDimensionPixelSize(R.dimen.dialpad_key_number_margin_bottom);
+        mZeroNumberMarginBottom =
+                res.getDimensionPixelSize(R.dimen.dialpad_zero_key_number_margin_bottom);
+        mSymbolMarginBottom = res.getDimensionPixelSize(R.dimen.dialpad_symbol_margin_bottom);
+        mKeyMinHeight = res.getDimensionPixelSize(R.dimen.dialpad_key_height);
+        mVoicemailIconPaddingTop =
+                res.getDimensionPixelSize(R.dimen.dialpad_voicemail_icon_padding_top);
+        mVoicemailIcon = context.getDrawable(R.drawable.ic_dialpad_voicemail).mutate();
+        if (voicemailTint != null) {
+            mVoicemailIcon.setTintList(voicemailTint);
+        }
+
+        mIsLandscape = res.getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
+        if (mIsLandscape) {
+            mNumberMarginRight = res.getDimensionPixelSize(R.dimen.dialpad_key_margin_right);
+            mOneNumberMarginRight =
+                    res.getDimensionPixelSize(R.dimen.dialpad_key_one_margin_right);
+            mSymbolWidth = res.getDimensionPixelSize(R.dimen.dialpad_key_number_width);
+            mLettersWidth = res.getDimensionPixelSize(R.dimen.dialpad_key_text_width);
+        }
+
+        mAccessibilityFocusPaint.setStyle(Paint.Style.STROKE);
+        mAccessibilityFocusPaint.setColor(primaryColor);
+        mAccessibilityFocusPaint.setStrokeWidth(
+                res.getDimension(R.dimen.dialpad_key_accessibility_focus_width));
+
+        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        mAccessibilityManager = (AccessibilityManager) context.getSystemService(
+                Context.ACCESSIBILITY_SERVICE);
+
+        Arrays.fill(mKeyPointers, NO_KEY);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            final DialpadKeyButton key = new DialpadKeyButton(context, null);
+            key.setId(KEY_IDS[i]);
+            key.setVisibility(View.GONE);
+            key.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+            addView(key);
+            mKeys[i] = key;
+            mKeyBounds[i] = new Rect();
+        }
+    }
+
+    /**
+     * Sets the color of the ripple drawn when a key is pressed.
+     */
+    public void setRippleColor(ColorStateList color) {
+        mRippleColor = color;
+        for (RippleDrawable ripple : mRipples) {
+            if (ripple != null) {
+                ripple.setColor(color);
+            }
+        }
+    }
+
+    /** Returns the ripple of a key, creating it if needed. */
+    private RippleDrawable getRipple(int key) {
+        if (mRipples[key] == null) {
+            final RippleDrawable ripple =
+                    (RippleDrawable) getContext().getDrawable(R.drawable.btn_dialpad_key);
+            if (mRippleColor != null) {
+                ripple.setColor(mRippleColor);
+            }
+            ripple.setCallback(this);
+            ripple.setState(isEnabled() ? STATE_ENABLED : StateSet.NOTHING);
+            ripple.setBounds(mKeyBounds[key]);
+            mRipples[key] = ripple;
+        }
+        return mRipples[key];
+    }
+
+    /**
+     * Sets the labels of a key.
+     *
+     * @param keyId The id of the key, such as {@code R.id.five}.
+     * @param number The number of the key.
+     * @param letters The letters of the key. Not drawn on the one, star and pound keys.
+     */
+    public void setKeyLabels(int keyId, String number, String letters) {
+        final int key = indexOfKey(keyId);
+        mNumbers[key] = number;
+        if (key != KEY_ONE && key != KEY_STAR && key != KEY_POUND && !TextUtils.isEmpty(letters)) {
+            mLetters[key] = letters;
+            mLetterWidths[key] = mLettersPaint.measureText(letters);
+        } else {
+            mLetters[key] = null;
+        }
+        invalidate();
+    }
+
+    /**
+     * Sets whether the voicemail icon is shown on the one key.
+     */
+    public void setShowVoicemailButton(boolean show) {
+        if (mShowVoicemailButton != show) {
+            mShowVoicemailButton = show;
+            invalidate();
+        }
+    }
+
+    /**
+     * Slides the keys into place, each with its own delay and duration.
+     *
+     * @param keyIds The ids of the keys to animate.
+     * @param delays The delay of each key, in milliseconds.
+     * @param durations The duration of each key, in milliseconds.
+     * @param translationX The horizontal offset the keys start from.
+     * @param translationY The vertical offset the keys start from.
+     */
+    public void animateShow(int[] keyIds, int[] delays, int[] durations, float translationX,
+            float translationY) {
+        if (mShowAnimator != null) {
+            mShowAnimator.cancel();
+        }
+        Arrays.fill(mShowDurations, 0);
+        int totalDuration = 0;
+        for (int i = 0; i < keyIds.length; i++) {
+            final int key = indexOfKey(keyIds[i]);
+            mShowDelays[key] = delays[i];
+            mShowDurations[key] = durations[i];
+            totalDuration = Math.max(totalDuration, delays[i] + durations[i]);
+        }
+        mShowTranslationX = translationX;
+        mShowTranslationY = translationY;
+
+        mShowAnimator = ValueAnimator.ofInt(0, totalDuration);
+        mShowAnimator.setDuration(totalDuration);
+        mShowAnimator.setInterpolator(null);
+        mShowAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                invalidate();
+            }
+        });
+        mShowAnimator.start();
+    }
+
+    /**
+     * Returns how far a key still is from its place, between 0 and 1.
+     */
+    private float getShowOffset(int key) {
+        if (mShowAnimator == null || mShowDurations[key] == 0) {
+            return 0;
+        }
+        final long elapsed = (Integer) mShowAnimator.getAnimatedValue() - mShowDelays[key];
+        if (elapsed <= 0) {
+            return 1;
+        }
+        if (elapsed >= mShowDurations[key]) {
+            return 0;
+        }
+        return 1 - AnimUtils.EASE_OUT_EASE_IN.getInterpolation(
+                (float) elapsed / mShowDurations[key]);
+    }
+
+    private static int indexOfKey(int keyId) {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (KEY_IDS[i] == keyId) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a dialpad key id: " + keyId);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int minHeight = getPaddingTop() + ROWS * mKeyMinHeight + getPaddingBottom();
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(Math.max(minHeight, getSuggestedMinimumHeight()),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final int left = getPaddingLeft();
+        final int top = getPaddingTop();
+        final int width = r - l - left - getPaddingRight();
+        final int height = b - t - top - getPaddingBottom();
+        final int totalWeight = 2 * SPACE_WEIGHT + COLUMNS * KEY_WEIGHT;
+        for (int cell = 0; cell < GRID.length; cell++) {
+            final int row = cell / COLUMNS;
+            final int column = cell % COLUMNS;
+            final int key = GRID[cell];
+            mKeyBounds[key].set(
+                    left + width * (SPACE_WEIGHT + column * KEY_WEIGHT) / totalWeight,
+                    top + height * row / ROWS,
+                    left + width * (SPACE_WEIGHT + (column + 1) * KEY_WEIGHT) / totalWeight,
+                    top + height * (row + 1) / ROWS);
+            if (mRipples[key] != null) {
+                mRipples[key].setBounds(mKeyBounds[key]);
+            }
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        for (int key = 0; key < KEY_COUNT; key++) {
+            final float offset = getShowOffset(key);
+            final int saveCount = canvas.save();
+            canvas.translate(offset * mShowTranslationX, offset * mShowTranslationY);
+            if (mRipples[key] != null) {
+                mRipples[key].draw(canvas);
+            }
+            drawKeyLabels(canvas, key);
+            if (key == mAccessibilityFocusedKey) {
+                // Virtual views get no focus highlight from the framework.
+                final float inset = mAccessibilityFocusPaint.getStrokeWidth() / 2;
+                final Rect bounds = mKeyBounds[key];
+                canvas.drawRect(bounds.left + inset, bounds.top + inset, bounds.right - inset,
+                        bounds.bottom - inset, mAccessibilityFocusPaint);
+            }
+            canvas.restoreToCount(saveCount);
+        }
+        if (mShowAnimator != null && !mShowAnimator.isRunning()) {
+            mShowAnimator = null;
+        }
+    }
+
+    /**
+     * Draws the number of a key and its letters or icon where the views of R.layout.dialpad_key
+     * would be: stacked in the center of the key in portrait, side by side against the right
+     * edge of the key in landscape.
+     */
+    private void drawKeyLabels(Canvas canvas, int key) {
+        final String number = mNumbers[key];
+        if (number == null) {
+            return;
+        }
+        final Paint numberPaint =
+                key == KEY_STAR ? mStarPaint : key == KEY_POUND ? mPoundPaint : mNumberPaint;
+        final Rect numberBounds = GlyphBoundsCache.get(number, numberPaint).getBounds();
+        if (mIsLandscape) {
+            drawKeyLabelsSideBySide(canvas, key, number, numberPaint, numberBounds);
+            return;
+        }
+
+        final int marginBottom;
+        final int belowHeight;
+        if (key == KEY_STAR || key == KEY_POUND) {
+            marginBottom = mSymbolMarginBottom;
+            belowHeight = 0;
+        } else if (key == KEY_ONE) {
+            marginBottom = mNumberMarginBottom;
+            belowHeight = Math.max(mLettersMetrics.descent - mLettersMetrics.ascent,
+                    mVoicemailIconPaddingTop + mVoicemailIcon.getIntrinsicHeight());
+        } else {
+            marginBottom = key == 0 ? mZeroNumberMarginBottom : mNumberMarginBottom;
+            belowHeight = mLettersMetrics.descent - mLettersMetrics.ascent;
+        }
+
+        final Rect bounds = mKeyBounds[key];
+        final int centerX = bounds.centerX();
+        final int top = bounds.centerY()
+                - (numberBounds.height() + marginBottom + belowHeight) / 2;
+        canvas.drawText(number, centerX - numberBounds.width() / 2 - numberBounds.left,
+                top - numberBounds.top, numberPaint);
+
+        final int belowTop = top + numberBounds.height() + marginBottom;
+        if (mLetters[key] != null) {
+            canvas.drawText(mLetters[key], centerX - mLetterWidths[key] / 2,
+                    belowTop - mLettersMetrics.ascent, mLettersPaint);
+        } else if (key == KEY_ONE && mShowVoicemailButton) {
+            final int iconWidth = mVoicemailIcon.getIntrinsicWidth();
+            final int iconHeight = mVoicemailIcon.getIntrinsicHeight();
+            final int iconTop = belowTop + (belowHeight - mVoicemailIconPaddingTop - iconHeight) / 2
+                    + mVoicemailIconPaddingTop;
+            mVoicemailIcon.setBounds(centerX - iconWidth / 2, iconTop,
+                    centerX - iconWidth / 2 + iconWidth, iconTop + iconHeight);
+            mVoicemailIcon.draw(canvas);
+        }
+    }
+
+    private void drawKeyLabelsSideBySide(Canvas canvas, int key, String number, Paint numberPaint,
+            Rect numberBounds) {
+        final Rect bounds = mKeyBounds[key];
+        final int centerY = bounds.centerY();
+        // The letters have a fixed width so that the numbers line up vertically.
+        final int lettersLeft = bounds.right - mLettersWidth;
+        final int numberRight =
+                lettersLeft - (key == KEY_ONE ? mOneNumberMarginRight : mNumberMarginRight);
+        final float numberX;
+        if (key == KEY_STAR || key == KEY_POUND) {
+            // Star and pound are centered in a fixed width.
+            numberX = numberRight - (mSymbolWidth + numberBounds.width()) / 2 - numberBounds.left;
+        } else {
+            numberX = numberRight - numberBounds.right;
+        }
+        canvas.drawText(number, numberX, centerY - numberBounds.height() / 2 - numberBounds.top,
+                numberPaint);
+
+        if (mLetters[key] != null) {
+            canvas.drawText(mLetters[key], lettersLeft + (mLettersWidth - mLetterWidths[key]) / 2,
+                    centerY - (mLettersMetrics.ascent + mLettersMetrics.descent) / 2,
+                    mLettersPaint);
+        } else if (key == KEY_ONE && mShowVoicemailButton) {
+            final int iconWidth = mVoicemailIcon.getIntrinsicWidth();
+            final int iconHeight = mVoicemailIcon.getIntrinsicHeight();
+            mVoicemailIcon.setBounds(lettersLeft, centerY - iconHeight / 2,
+                    lettersLeft + iconWidth, centerY - iconHeight / 2 + iconHeight);
+            mVoicemailIcon.draw(canvas);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        for (RippleDrawable ripple : mRipples) {
+            if (who == ripple) {
+                return true;
+            }
+        }
+        return super.verifyDrawable(who);
+    }
+
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+        for (RippleDrawable ripple : mRipples) {
+            if (ripple != null) {
+                ripple.jumpToCurrentState();
+            }
+        }
+    }
+
+    private int getKeyAt(float x, float y) {
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (mKeyBounds[key].contains((int) x, (int) y)) {
+                return key;
+            }
+        }
+        return NO_KEY;
+    }
+
+    private int getKeyPressedBy(int pointerId) {
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (mKeyPointers[key] == pointerId) {
+                return key;
+            }
+        }
+        return NO_KEY;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (mKeyPointers[key] != NO_KEY) {
+                releaseKey(key, false);
+            }
+            if (mRipples[key] != null) {
+                mRipples[key].setState(enabled ? STATE_ENABLED : StateSet.NOTHING);
+            }
+        }
+        setHoveredKey(NO_KEY);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled()) {
+            // A disabled key still consumes touch events, it just doesn't respond to them.
+            return true;
+        }
+        final int action = event.getActionMasked();
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                final int index = event.getActionIndex();
+                final int key = getKeyAt(event.getX(index), event.getY(index));
+                if (key != NO_KEY && mKeyPointers[key] == NO_KEY) {
+                    pressKey(key, event.getPointerId(index), event.getX(index), event.getY(index));
+                }
+                break;
+            }
+            case MotionEvent.ACTION_MOVE:
+                for (int index = 0; index < event.getPointerCount(); index++) {
+                    final int key = getKeyPressedBy(event.getPointerId(index));
+                    if (key == NO_KEY) {
+                        continue;
+                    }
+                    final float x = event.getX(index);
+                    final float y = event.getY(index);
+                    final Rect bounds = mKeyBounds[key];
+                    if (x < bounds.left - mTouchSlop || x >= bounds.right + mTouchSlop
+                            || y < bounds.top - mTouchSlop || y >= bounds.bottom + mTouchSlop) {
+                        // Moved out of the key: release it without clicking, as View does.
+                        releaseKey(key, false);
+                    } else {
+                        getRipple(key).setHotspot(x, y);
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP: {
+                final int key = getKeyPressedBy(event.getPointerId(event.getActionIndex()));
+                if (key != NO_KEY) {
+                    releaseKey(key, true);
+                }
+                break;
+            }
+            case MotionEvent.ACTION_CANCEL:
+                for (int key = 0; key < KEY_COUNT; key++) {
+                    if (mKeyPointers[key] != NO_KEY) {
+                        releaseKey(key, false);
+                    }
+                }
+                break;
+        }
+        return true;
+    }
+
+    private void pressKey(final int key, int pointerId, float x, float y) {
+        mKeyPointers[key] = pointerId;
+        mLongPressed[key] = false;
+        getRipple(key).setHotspot(x, y);
+        setKeyPressed(key, true);
+
+        if (mKeys[key].isLongClickable()) {
+            if (mLongPressRunnables[key] == null) {
+                mLongPressRunnables[key] = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mKeyPointers[key] != NO_KEY && performKeyLongClick(key)) {
+                            mLongPressed[key] = true;
+                        }
+                    }
+                };
+            }
+            postDelayed(mLongPressRunnables[key], ViewConfiguration.getLongPressTimeout());
+        }
+    }
+
+    private void releaseKey(int key, boolean click) {
+        mKeyPointers[key] = NO_KEY;
+        if (mLongPressRunnables[key] != null) {
+            removeCallbacks(mLongPressRunnables[key]);
+        }
+        if (click && !mLongPressed[key]) {
+            performKeyClick(key);
+        }
+        setKeyPressed(key, false);
+    }
+
+    /** Presses or releases a key, which tells the pressed listener of its child. */
+    private void setKeyPressed(int key, boolean pressed) {
+        mPressed[key] = pressed;
+        getRipple(key).setState(pressed ? STATE_PRESSED : STATE_ENABLED);
+        mKeys[key].setPressed(pressed);
+    }
+
+    /** Clicks a key through its child, which plays the click sound and calls its listener. */
+    private void performKeyClick(int key) {
+        sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_CLICKED);
+        mKeys[key].performClick();
+    }
+
+    /**
+     * Long clicks a key through its child, which calls its listener and performs the haptic
+     * feedback.
+     */
+    private boolean performKeyLongClick(int key) {
+        sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_LONG_CLICKED);
+        return mKeys[key].performLongClick();
+    }
+
+    @Override
+    public boolean onRequestSendAccessibilityEvent(View child, AccessibilityEvent event) {
+        // The children are hidden; the keys send their events as virtual views instead.
+        return false;
+    }
+
+    /**
+     * When accessibility is on, simulate press and release to preserve the semantic meaning of
+     * performClick(), as {@link DialpadKeyButton} does.
+     */
+    private void simulateClickForAccessibility(int key) {
+        // Checking the press state prevents double activation.
+        if (mPressed[key]) {
+            return;
+        }
+        setKeyPressed(key, true);
+        sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_CLICKED);
+        setKeyPressed(key, false);
+    }
+
+    @Override
+    public boolean dispatchHoverEvent(MotionEvent event) {
+        if (!isEnabled() || !mAccessibilityManager.isEnabled()
+                || !mAccessibilityManager.isTouchExplorationEnabled()) {
+            return super.dispatchHoverEvent(event);
+        }
+        // Implements the lift-to-type interaction of DialpadKeyButton for the virtual keys.
+        final int key = getKeyAt(event.getX(), event.getY());
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_HOVER_ENTER:
+            case MotionEvent.ACTION_HOVER_MOVE:
+                setHoveredKey(key);
+                break;
+            case MotionEvent.ACTION_HOVER_EXIT:
+                if (mHoveredKey != NO_KEY && mHoveredKey == key) {
+                    if (mLongHovered) {
+                        performKeyLongClick(key);
+                    } else {
+                        simulateClickForAccessibility(key);
+                    }
+                }
+                setHoveredKey(NO_KEY);
+                break;
+        }
+        return true;
+    }
+
+    private void setHoveredKey(int key) {
+        if (mHoveredKey == key) {
+            return;
+        }
+        final int previousKey = mHoveredKey;
+        mHoveredKey = key;
+        if (mLongHoverRunnable != null) {
+            removeCallbacks(mLongHoverRunnable);
+        }
+        mLongHovered = false;
+        if (key != NO_KEY) {
+            sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_HOVER_ENTER);
+            final CharSequence longHoverDescription =
+                    mKeys[key].getLongHoverContentDescription();
+            if (mKeys[key].isLongClickable() && longHoverDescription != null) {
+                mLongHoverRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        mLongHovered = true;
+                        announceForAccessibility(longHoverDescription);
+                    }
+                };
+                postDelayed(mLongHoverRunnable, LONG_HOVER_TIMEOUT);
+            }
+        }
+        if (previousKey != NO_KEY) {
+            sendEventForKey(previousKey, AccessibilityEvent.TYPE_VIEW_HOVER_EXIT);
+        }
+    }
+
+    private void sendEventForKey(int key, int eventType) {
+        final ViewParent parent = getParent();
+        if (parent == null || !mAccessibilityManager.isEnabled()) {
+            return;
+        }
+        final AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(getContext().getPackageName());
+        event.setClassName(Button.class.getName());
+        event.setContentDescription(getKeyContentDescription(key));
+        event.setEnabled(isEnabled());
+        event.setSource(this, key);
+        parent.requestSendAccessibilityEvent(this, event);
+    }
+
+    private CharSequence getKeyContentDescription(int key) {
+        final CharSequence description = mKeys[key].getContentDescription();
+        return description != null ? description : mNumbers[key];
+    }
+
+    @Override
+    public AccessibilityNodeProvider getAccessibilityNodeProvider() {
+        if (mNodeProvider == null) {
+            mNodeProvider = new KeypadNodeProvider();
+        }
+        return mNodeProvider;
+    }
+
+    /**
+     * Exposes the keys to accessibility services as virtual views, whose ids are the key
+     * indices.
+     */
+    private class KeypadNodeProvider extends AccessibilityNodeProvider {
+        @Override
+        public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId) {
+            if (virtualViewId == View.NO_ID) {
+                final AccessibilityNodeInfo info =
+                        AccessibilityNodeInfo.obtain(DialpadKeypadView.this);
+                onInitializeAccessibilityNodeInfo(info);
+                for (int key : GRID) {
+                    info.addChild(DialpadKeypadView.this, key);
+                }
+                return info;
+            }
+            final int key = virtualViewId;
+            final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+            info.setPackageName(getContext().getPackageName());
+            info.setClassName(Button.class.getName());
+            info.setSource(DialpadKeypadView.this, key);
+            info.setParent(DialpadKeypadView.this);
+            info.setContentDescription(getKeyContentDescription(key));
+            info.setEnabled(isEnabled());
+            info.setVisibleToUser(true);
+            info.setClickable(true);
+            if (isEnabled()) {
+                info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_CLICK);
+            }
+            if (mKeys[key].isLongClickable()) {
+                info.setLongClickable(true);
+                if (isEnabled()) {
+                    info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_LONG_CLICK);
+                }
+            }
+            if (mAccessibilityFocusedKey == key) {
+                info.setAccessibilityFocused(true);
+                info.addAction(AccessibilityNodeInfo.AccessibilityAction
+                        .ACTION_CLEAR_ACCESSIBILITY_FOCUS);
+            } else {
+                info.addAction(AccessibilityNodeInfo.AccessibilityAction
+                        .ACTION_ACCESSIBILITY_FOCUS);
+            }
+
+            final Rect bounds = new Rect(mKeyBounds[key]);
+            info.setBoundsInParent(bounds);
+            getLocationOnScreen(mTempLocation);
+            bounds.offset(mTempLocation[0], mTempLocation[1]);
+            info.setBoundsInScreen(bounds);
+            return info;
+        }
+
+        @Override
+        public boolean performAction(int virtualViewId, int action, Bundle arguments) {
+            if (virtualViewId == View.NO_ID) {
+                return performAccessibilityAction(action, arguments);
+            }
+            final int key = virtualViewId;
+            switch (action) {
+                case AccessibilityNodeInfo.ACTION_CLICK:
+                    if (!isEnabled()) {
+                        return false;
+                    }
+                    simulateClickForAccessibility(key);
+                    return true;
+                case AccessibilityNodeInfo.ACTION_LONG_CLICK:
+                    return isEnabled() && performKeyLongClick(key);
+                case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+                    if (mAccessibilityFocusedKey == key) {
+                        return false;
+                    }
+                    if (mAccessibilityFocusedKey != NO_KEY) {
+                        sendEventForKey(mAccessibilityFocusedKey,
+                                AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    }
+                    mAccessibilityFocusedKey = key;
+                    invalidate();
+                    sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+                    return true;
+                case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+                    if (mAccessibilityFocusedKey != key) {
+                        return false;
+                    }
+                    mAccessibilityFocusedKey = NO_KEY;
+                    invalidate();
+                    sendEventForKey(key, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    return true;
+            }
+            return false;
+        }
+    }
+}
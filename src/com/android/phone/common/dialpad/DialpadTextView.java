@@ -17,12 +17,15 @@
 package com.android.phone.common.dialpad;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.widget.TextView;
 
+import com.android.phone.common.R;
+
 /**
  * This is a custom text view intended only for rendering the numerals (and star and pound) on the
  * dialpad. TextView has built in top/bottom padding to help account for ascenders/descenders.
@@ -30,13 +33,41 @@ import android.widget.TextView;
  * Since vertical space is at a premium on the dialpad, particularly if the font size is scaled to
  * a larger default, for the dialpad we use this class to more precisely render characters according
  * to the precise amount of space they need.
+ *
+ * When config_dialpad_glyph_atlas is set, the label is drawn from a bitmap shared by all keys
+ * rather than rendered as text.
  */
 public class DialpadTextView extends TextView {
-    private Rect mTextBounds = new Rect();
-    private String mTextStr;
+    private GlyphBoundsCache.Entry mGlyphBounds;
+
+    private final boolean mUseGlyphAtlas;
+    private final Rect mAtlasDestination = new Rect();
+    /** The labels of the current configuration, which the glyph atlas is built for. */
+    private DialpadKeyLabels mKeyLabels;
 
     public DialpadTextView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        mUseGlyphAtlas = getResources().getBoolean(R.bool.config_dialpad_glyph_atlas);
+        updateKeyLabels();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // The configuration may have changed while the view was detached, e.g. in a pool.
+        updateKeyLabels();
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        updateKeyLabels();
+    }
+
+    private void updateKeyLabels() {
+        if (mUseGlyphAtlas) {
+            mKeyLabels = DialpadKeyLabels.get(getResources());
+        }
     }
 
     /**
@@ -52,21 +83,45 @@ public class DialpadTextView extends TextView {
         // The text bounds values are relative and can be negative,, so rather than specifying a
         // standard origin such as 0, 0, we need to use negative of the left/top bounds.
         // For example, the bounds may be: Left: 11, Right: 37, Top: -77, Bottom: 0
-        canvas.drawText(mTextStr, -mTextBounds.left, -mTextBounds.top, paint);
+        if (mUseGlyphAtlas && drawFromGlyphAtlas(canvas, paint)) {
+            return;
+        }
+
+        final Rect textBounds = mGlyphBounds.getBounds();
+        canvas.drawText(mGlyphBounds.getText(), -textBounds.left, -textBounds.top, paint);
+    }
+
+    /**
+     * Draws the label from the glyph atlas shared by the keys with the same text attributes.
+     *
+     * @return false if the label is not in the atlas and must be drawn as text.
+     */
+    private boolean drawFromGlyphAtlas(Canvas canvas, Paint paint) {
+        final GlyphAtlas atlas = GlyphAtlas.get(paint, paint.getColor(), mKeyLabels);
+        final Rect region = atlas.getRegion(mGlyphBounds);
+        if (region == null) {
+            return false;
+        }
+        // The region includes padding around the bounds of the label, which are drawn at 0, 0.
+        mAtlasDestination.set(-GlyphAtlas.PADDING, -GlyphAtlas.PADDING,
+                region.width() - GlyphAtlas.PADDING, region.height() - GlyphAtlas.PADDING);
+        canvas.drawBitmap(atlas.getBitmap(), region, mAtlasDestination, null);
+        return true;
     }
 
     /**
      * Calculate the pixel-accurate bounds of the text when rendered, and use that to specify the
-     * height and width.
+     * height and width. The bounds are shared by all views showing the same label with the same
+     * typeface, text size and locale.
      */
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        mTextStr = getText().toString();
-        getPaint().getTextBounds(mTextStr, 0, mTextStr.length(), mTextBounds);
+        mGlyphBounds = GlyphBoundsCache.get(getText(), getPaint());
+        final Rect textBounds = mGlyphBounds.getBounds();
 
-        int width = resolveSize(mTextBounds.width(), widthMeasureSpec);
-        int height = resolveSize(mTextBounds.height(), heightMeasureSpec);
+        int width = resolveSize(textBounds.width(), widthMeasureSpec);
+        int height = resolveSize(textBounds.height(), heightMeasureSpec);
         setMeasuredDimension(width, height);
     }
 }
@@ -20,14 +20,11 @@ import android.animation.AnimatorListenerAdapter;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.RippleDrawable;
 import android.os.Build;
-import android.text.Spannable;
 import android.text.TextUtils;
-import android.text.style.TtsSpan;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -43,8 +40,6 @@ import android.widget.TextView;
 import com.android.phone.common.R;
 import com.android.phone.common.animation.AnimUtils;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.Locale;
 
 /**
@@ -77,6 +72,9 @@ public class DialpadView extends LinearLayout {
 
     private boolean mCanDigitsBeEdited;
 
+    /** The single-view keypad, if the layout uses one instead of R.layout.dialpad. */
+    private DialpadKeypadView mKeypad;
+
     private final int[] mButtonIds = new int[] {R.id.zero, R.id.one, R.id.two, R.id.three,
             R.id.four, R.id.five, R.id.six, R.id.seven, R.id.eight, R.id.nine, R.id.star,
             R.id.pound};
@@ -112,6 +110,13 @@ public class DialpadView extends LinearLayout {
 
     @Override
     protected void onFinishInflate() {
+        final View keypad = findViewById(R.id.dialpad);
+        if (keypad instanceof DialpadKeypadView) {
+            mKeypad = (DialpadKeypadView) keypad;
+            if (mRippleColor != null) {
+                mKeypad.setRippleColor(mRippleColor);
+            }
+        }
         setupKeypad();
         mDigits = (EditText) findViewById(R.id.digits);
         mDelete = (ImageButton) findViewById(R.id.deleteButton);
@@ -129,89 +134,47 @@ public class DialpadView extends LinearLayout {
     }
 
     private void setupKeypad() {
-        final int[] letterIds = new int[] {
-            R.string.dialpad_0_letters,
-            R.string.dialpad_1_letters,
-            R.string.dialpad_2_letters,
-            R.string.dialpad_3_letters,
-            R.string.dialpad_4_letters,
-            R.string.dialpad_5_letters,
-            R.string.dialpad_6_letters,
-            R.string.dialpad_7_letters,
-            R.string.dialpad_8_letters,
-            R.string.dialpad_9_letters,
-            R.string.dialpad_star_letters,
-            R.string.dialpad_pound_letters
-        };
-
-        final Resources resources = getContext().getResources();
+        // Labels are shared by all dialpads built in the same configuration. The button ids are
+        // in the same order as the keys of the labels.
+        final DialpadKeyLabels labels = DialpadKeyLabels.get(getContext().getResources());
 
         DialpadKeyButton dialpadKey;
         TextView numberView;
         TextView lettersView;
 
-        final Locale currentLocale = resources.getConfiguration().locale;
-        final NumberFormat nf;
-        // We translate dialpad numbers only for "fa" and not any other locale
-        // ("ar" anybody ?).
-        if ("fa".equals(currentLocale.getLanguage())) {
-            nf = DecimalFormat.getInstance(resources.getConfiguration().locale);
-        } else {
-            nf = DecimalFormat.getInstance(Locale.ENGLISH);
-        }
-
         for (int i = 0; i < mButtonIds.length; i++) {
             dialpadKey = (DialpadKeyButton) findViewById(mButtonIds[i]);
-            numberView = (TextView) dialpadKey.findViewById(R.id.dialpad_key_number);
-            lettersView = (TextView) dialpadKey.findViewById(R.id.dialpad_key_letters);
+            dialpadKey.setContentDescription(labels.getContentDescription(i));
 
-            final String numberString;
-            final CharSequence numberContentDescription;
-            if (mButtonIds[i] == R.id.pound) {
-                numberString = resources.getString(R.string.dialpad_pound_number);
-                numberContentDescription = numberString;
-            } else if (mButtonIds[i] == R.id.star) {
-                numberString = resources.getString(R.string.dialpad_star_number);
-                numberContentDescription = numberString;
-            } else {
-                numberString = nf.format(i);
-                // The content description is used for Talkback key presses. The number is
-                // separated by a "," to introduce a slight delay. Convert letters into a verbatim
-                // span so that they are read as letters instead of as one word.
-                String letters = resources.getString(letterIds[i]);
-                Spannable spannable =
-                        Spannable.Factory.getInstance().newSpannable(numberString + "," + letters);
-                spannable.setSpan(
-                        (new TtsSpan.VerbatimBuilder(letters)).build(),
-                        numberString.length() + 1,
-                        numberString.length() + 1 + letters.length(),
-                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                numberContentDescription = spannable;
+            if (mKeypad != null) {
+                // The keypad draws the labels and ripples of its keys itself.
+                mKeypad.setKeyLabels(mButtonIds[i], labels.getNumber(i), labels.getLetters(i));
+                continue;
             }
 
+            numberView = (TextView) dialpadKey.findViewById(R.id.dialpad_key_number);
+            lettersView = (TextView) dialpadKey.findViewById(R.id.dialpad_key_letters);
+
             final RippleDrawable rippleBackground = (RippleDrawable)
                     getDrawableCompat(getContext(), R.drawable.btn_dialpad_key);
             if (mRippleColor != null) {
                 rippleBackground.setColor(mRippleColor);
             }
 
-            numberView.setText(numberString);
+            numberView.setText(labels.getNumber(i));
             numberView.setElegantTextHeight(false);
-            dialpadKey.setContentDescription(numberContentDescription);
             dialpadKey.setBackground(rippleBackground);
 
             if (lettersView != null) {
-                lettersView.setText(resources.getString(letterIds[i]));
+                lettersView.setText(labels.getLetters(i));
             }
         }
 
         final DialpadKeyButton one = (DialpadKeyButton) findViewById(R.id.one);
-        one.setLongHoverContentDescription(
-                resources.getText(R.string.description_voicemail_button));
+        one.setLongHoverContentDescription(labels.getVoicemailDescription());
 
         final DialpadKeyButton zero = (DialpadKeyButton) findViewById(R.id.zero);
-        zero.setLongHoverContentDescription(
-                resources.getText(R.string.description_image_button_plus));
+        zero.setLongHoverContentDescription(labels.getPlusDescription());
 
     }
 
@@ -224,6 +187,10 @@ public class DialpadView extends LinearLayout {
     }
 
     public void setShowVoicemailButton(boolean show) {
+        if (mKeypad != null) {
+            mKeypad.setShowVoicemailButton(show);
+            return;
+        }
         View view = findViewById(R.id.dialpad_key_voicemail);
         if (view != null) {
             view.setVisibility(show ? View.VISIBLE : View.INVISIBLE);
@@ -279,6 +246,23 @@ public class DialpadView extends LinearLayout {
         // numbers appear at their original position (0) momentarily before animating.
         final AnimatorListenerAdapter showListener = new AnimatorListenerAdapter() {};
 
+        if (mKeypad != null) {
+            final int[] delays = new int[mButtonIds.length];
+            final int[] durations = new int[mButtonIds.length];
+            for (int i = 0; i < mButtonIds.length; i++) {
+                delays[i] = (int)(getKeyButtonAnimationDelay(mButtonIds[i]) * DELAY_MULTIPLIER);
+                durations[i] =
+                        (int)(getKeyButtonAnimationDuration(mButtonIds[i]) * DURATION_MULTIPLIER);
+            }
+            if (mIsLandscape) {
+                mKeypad.animateShow(mButtonIds, delays, durations,
+                        (mIsRtl ? -1 : 1) * mTranslateDistance, 0);
+            } else {
+                mKeypad.animateShow(mButtonIds, delays, durations, 0, mTranslateDistance);
+            }
+            return;
+        }
+
         for (int i = 0; i < mButtonIds.length; i++) {
             int delay = (int)(getKeyButtonAnimationDelay(mButtonIds[i]) * DELAY_MULTIPLIER);
             int duration =
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Keeps a few dialpad layouts inflated and set up ahead of time, so that opening the dialpad
+ * attaches an already built view. Only used on the UI thread.
+ *
+ * {@link #prewarm} first builds the key labels the dialpad needs on a background thread, then
+ * inflates the layouts on the UI thread while it is idle, one at a time.
+ * Pooled views are tied to the context of the pool. If that context is an activity, the pool is
+ * cleared when the activity is destroyed; otherwise it should be cleared when it goes away.
+ */
+public class DialpadViewPool {
+    private final Context mContext;
+    private final int mLayoutResId;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<View> mViews = new ArrayList<View>();
+
+    /** The activity of the context, which clears the pool when destroyed, or null. */
+    private final Activity mActivity;
+    /** Held weakly, so that the pool does not keep the view hierarchy alive. */
+    private WeakReference<ViewGroup> mParent;
+    private int mTargetSize;
+    private boolean mInflateScheduled;
+    /** Configuration the pooled views were inflated in. */
+    private Configuration mConfiguration;
+
+    private final MessageQueue.IdleHandler mInflateWhenIdle = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            final ViewGroup parent = getParent();
+            if (parent == null || mViews.size() >= mTargetSize) {
+                mInflateScheduled = false;
+                return false;
+            }
+            discardIfConfigurationChanged();
+            mViews.add(inflate(parent));
+            mInflateScheduled = mViews.size() < mTargetSize;
+            return mInflateScheduled;
+        }
+    };
+
+    private final Application.ActivityLifecycleCallbacks mLifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity == mActivity) {
+                clear();
+                activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+            }
+        }
+    };
+
+    /**
+     * @param context The context to inflate the dialpads with.
+     * @param layoutResId The layout of the dialpad, such as {@code R.layout.dialpad_view}.
+     */
+    public DialpadViewPool(Context context, int layoutResId) {
+        mContext = context;
+        mLayoutResId = layoutResId;
+        mActivity = findActivity(context);
+        if (mActivity != null) {
+            mActivity.getApplication().registerActivityLifecycleCallbacks(mLifecycleCallbacks);
+        }
+    }
+
+    private static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    /**
+     * Prepares dialpads for {@link #obtain} to return, in the background and while the UI
+     * thread is idle.
+     *
+     * @param parent The view the dialpads will be added to, which provides their layout params.
+     * @param count How many dialpads to keep ready.
+     */
+    public void prewarm(ViewGroup parent, int count) {
+        mParent = new WeakReference<ViewGroup>(parent);
+        mTargetSize = count;
+        final Resources resources = mContext.getResources();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmResources(resources);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduleInflate();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns a pooled dialpad, or inflates one if none is ready. The view is not attached to
+     * the parent.
+     *
+     * @param parent The view the dialpad will be added to.
+     */
+    public View obtain(ViewGroup parent) {
+        discardIfConfigurationChanged();
+        final View view;
+        if (mViews.isEmpty()) {
+            view = inflate(parent);
+        } else {
+            view = mViews.remove(mViews.size() - 1);
+        }
+        scheduleInflate();
+        return view;
+    }
+
+    /**
+     * Drops the pooled dialpads and stops preparing new ones.
+     */
+    public void clear() {
+        mViews.clear();
+        mParent = null;
+        mTargetSize = 0;
+        if (mInflateScheduled) {
+            mInflateScheduled = false;
+            Looper.myQueue().removeIdleHandler(mInflateWhenIdle);
+        }
+    }
+
+    private ViewGroup getParent() {
+        return mParent != null ? mParent.get() : null;
+    }
+
+    private void scheduleInflate() {
+        if (!mInflateScheduled && getParent() != null && mViews.size() < mTargetSize) {
+            mInflateScheduled = true;
+            Looper.myQueue().addIdleHandler(mInflateWhenIdle);
+        }
+    }
+
+    private View inflate(ViewGroup parent) {
+        if (mConfiguration == null) {
+            mConfiguration = new Configuration(mContext.getResources().getConfiguration());
+        }
+        return LayoutInflater.from(mContext).inflate(mLayoutResId, parent, false);
+    }
+
+    private void discardIfConfigurationChanged() {
+        final Configuration configuration = mContext.getResources().getConfiguration();
+        if (mConfiguration != null && mConfiguration.diff(configuration) != 0) {
+            // Dialpads depend on the orientation and locale they were set up for.
+            mViews.clear();
+            mConfiguration = null;
+        }
+    }
+
+    /**
+     * Builds the key labels setting up a dialpad reads, so that they are cached by the time the
+     * dialpad is inflated. Runs on a background thread.
+     */
+    private static void warmResources(Resources resources) {
+        DialpadKeyLabels.get(resources);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.HashMap;
+
+/**
+ * A bitmap holding the dialpad key labels rendered with a given typeface, text size and color, so
+ * that they can be drawn as bitmap blits. Only used on the UI thread.
+ *
+ * All the labels are rendered when the atlas is built, since hardware accelerated canvases do not
+ * upload a bitmap again after it has been drawn. A few atlases are kept, so that switching back
+ * to a previous theme or configuration does not render the labels again.
+ */
+class GlyphAtlas {
+    private static final int CACHE_SIZE = 4;
+    /** Recently used atlases, most recent first. */
+    private static final GlyphAtlas[] sCache = new GlyphAtlas[CACHE_SIZE];
+
+    private static final int COLUMNS = 4;
+    private static final int ROWS = (DialpadKeyLabels.KEY_COUNT + COLUMNS - 1) / COLUMNS;
+    /** Room left around each label for anti-aliased edges outside of its bounds. */
+    static final int PADDING = 1;
+
+    private final Typeface mTypeface;
+    private final float mTextSize;
+    private final int mColor;
+    private final DialpadKeyLabels mLabels;
+
+    private final HashMap<String, Rect> mRegions = new HashMap<String, Rect>();
+    private final Bitmap mBitmap;
+
+    private GlyphAtlas(Paint paint, int color, DialpadKeyLabels labels) {
+        mTypeface = paint.getTypeface();
+        mTextSize = paint.getTextSize();
+        mColor = color;
+        mLabels = labels;
+
+        final Paint atlasPaint = new Paint(paint);
+        atlasPaint.setColor(color);
+        final int cellSize = (int) Math.ceil(mTextSize * 1.5f) + 2 * PADDING;
+        mBitmap = Bitmap.createBitmap(COLUMNS * cellSize, ROWS * cellSize,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < DialpadKeyLabels.KEY_COUNT; i++) {
+            final GlyphBoundsCache.Entry label =
+                    GlyphBoundsCache.get(labels.getNumber(i), paint);
+            if (mRegions.containsKey(label.getText())) {
+                continue;
+            }
+            final Rect bounds = label.getBounds();
+            if (bounds.width() + 2 * PADDING > cellSize
+                    || bounds.height() + 2 * PADDING > cellSize) {
+                // Remember that this label is drawn as text.
+                mRegions.put(label.getText(), null);
+                continue;
+            }
+            final int left = (i % COLUMNS) * cellSize;
+            final int top = (i / COLUMNS) * cellSize;
+            canvas.drawText(label.getText(), left + PADDING - bounds.left,
+                    top + PADDING - bounds.top, atlasPaint);
+            mRegions.put(label.getText(), new Rect(left, top,
+                    left + bounds.width() + 2 * PADDING, top + bounds.height() + 2 * PADDING));
+        }
+    }
+
+    /**
+     * Returns the atlas of the given key labels, for the typeface and text size of a paint and
+     * the given color.
+     */
+    public static GlyphAtlas get(Paint paint, int color, DialpadKeyLabels labels) {
+        int index = 0;
+        for (; index < CACHE_SIZE - 1; index++) {
+            if (sCache[index] == null || sCache[index].matches(paint, color, labels)) {
+                break;
+            }
+        }
+        GlyphAtlas atlas = sCache[index];
+        if (atlas == null || !atlas.matches(paint, color, labels)) {
+            // The dropped atlas is not recycled, as display lists may still draw it.
+            atlas = new GlyphAtlas(paint, color, labels);
+        }
+        System.arraycopy(sCache, 0, sCache, 1, index);
+        sCache[0] = atlas;
+        return atlas;
+    }
+
+    private boolean matches(Paint paint, int color, DialpadKeyLabels labels) {
+        return mColor == color && mLabels == labels && mTextSize == paint.getTextSize()
+                && mTypeface == paint.getTypeface();
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Returns the region of the atlas holding a label, or null if the label is not in the atlas
+     * and must be drawn as text. The region includes {@link #PADDING} pixels around the bounds of
+     * the label.
+     */
+    public Rect getRegion(GlyphBoundsCache.Entry label) {
+        return mRegions.get(label.getText());
+    }
+}
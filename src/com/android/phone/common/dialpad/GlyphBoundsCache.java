@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.Locale;
+
+/**
+ * Process-wide cache of the pixel-accurate bounds of dialpad key labels, so that measuring the
+ * keypad again does not shape the labels again. Only used on the UI thread.
+ */
+class GlyphBoundsCache {
+    private static final int CACHE_SIZE = 64;
+
+    /** Direct-mapped by hash of the label and paint attributes. */
+    private static final Entry[] sEntries = new Entry[CACHE_SIZE];
+
+    /**
+     * The bounds of a label rendered with a paint. Entries are shared and must not be modified.
+     */
+    static final class Entry {
+        private final String mText;
+        private final Typeface mTypeface;
+        private final float mTextSize;
+        private final Locale mTextLocale;
+        private final Rect mBounds = new Rect();
+
+        private Entry(String text, Paint paint) {
+            mText = text;
+            mTypeface = paint.getTypeface();
+            mTextSize = paint.getTextSize();
+            mTextLocale = paint.getTextLocale();
+            paint.getTextBounds(text, 0, text.length(), mBounds);
+        }
+
+        /** The label, as a String that can be drawn without allocating. */
+        public String getText() {
+            return mText;
+        }
+
+        /** The bounds of the label, relative to the origin it is drawn at. */
+        public Rect getBounds() {
+            return mBounds;
+        }
+
+        private boolean matches(CharSequence text, Paint paint) {
+            if (mTextSize != paint.getTextSize() || mTypeface != paint.getTypeface()
+                    || mText.length() != text.length()
+                    || !mTextLocale.equals(paint.getTextLocale())) {
+                return false;
+            }
+            for (int i = mText.length() - 1; i >= 0; i--) {
+                if (mText.charAt(i) != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private GlyphBoundsCache() {}
+
+    /**
+     * Returns the bounds of a label rendered with the given paint, measuring it only if it was
+     * not measured with the same typeface, text size and locale before.
+     */
+    public static Entry get(CharSequence text, Paint paint) {
+        int hash = Float.floatToIntBits(paint.getTextSize()) * 31
+                + System.identityHashCode(paint.getTypeface());
+        for (int i = 0, length = text.length(); i < length; i++) {
+            hash = hash * 31 + text.charAt(i);
+        }
+        hash ^= hash >>> 16;
+        final int slot = hash & (CACHE_SIZE - 1);
+
+        Entry entry = sEntries[slot];
+        if (entry == null || !entry.matches(text, paint)) {
+            entry = new Entry(text.toString(), paint);
+            sEntries[slot] = entry;
+        }
+        return entry;
+    }
+}
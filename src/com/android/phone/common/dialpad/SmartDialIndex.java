@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.dialpad;
+
+import java.util.Arrays;
+
+/**
+ * Immutable index of names keyed by the digits of their letters on the dialpad (T9), for
+ * matching names as digits are typed.
+ * <p>
+ * A name matches the typed digits when they spell:
+ * <ul>
+ * <li>the start of the name, possibly running on into the following words;
+ * <li>the initials of its words, e.g. "57" for "John Smith";
+ * <li>the start of any later word of the name.
+ * </ul>
+ * Matches are ranked in that order, then by the affinity given when the name was added.
+ * <p>
+ * Build an index off the UI thread with a {@link Builder}, then search it with a {@link Query},
+ * which narrows the previous matches as digits are appended instead of scanning every name. The
+ * names matching a first digit are looked up in buckets built with the index.
+ */
+public final class SmartDialIndex {
+    private static final int SCORE_NONE = 0;
+    private static final int SCORE_WORD_START = 1;
+    private static final int SCORE_INITIALS = 2;
+    private static final int SCORE_NAME_START = 3;
+
+    /** Maximum number of digits kept for a name. */
+    private static final int MAX_NAME_DIGITS = 255;
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final int[] mAffinities;
+    /** Key digits of all names, one per byte. */
+    private final byte[] mDigits;
+    private final int[] mDigitOffsets;
+    private final int[] mDigitCounts;
+    /** Positions within each name's digits where its words start, one per byte. */
+    private final byte[] mWordStarts;
+    private final int[] mWordOffsets;
+    private final int[] mWordCounts;
+    /**
+     * Positions of the names matching each single digit, i.e. with a word starting with it, in
+     * index order.
+     */
+    private final int[][] mFirstDigitBuckets = new int[10][];
+
+    private SmartDialIndex(Builder builder) {
+        final int size = builder.mSize;
+        mIds = Arrays.copyOf(builder.mIds, size);
+        mNames = Arrays.copyOf(builder.mNames, size);
+        mAffinities = Arrays.copyOf(builder.mAffinities, size);
+        mDigits = Arrays.copyOf(builder.mDigits, builder.mDigitCount);
+        mDigitOffsets = Arrays.copyOf(builder.mDigitOffsets, size);
+        mDigitCounts = Arrays.copyOf(builder.mDigitCounts, size);
+        mWordStarts = Arrays.copyOf(builder.mWordStarts, builder.mWordStartCount);
+        mWordOffsets = Arrays.copyOf(builder.mWordOffsets, size);
+        mWordCounts = Arrays.copyOf(builder.mWordCounts, size);
+        buildFirstDigitBuckets();
+    }
+
+    private void buildFirstDigitBuckets() {
+        final int size = size();
+        final int[] bucketSizes = new int[mFirstDigitBuckets.length];
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                for (int digit = 0; digit < mFirstDigitBuckets.length; digit++) {
+                    mFirstDigitBuckets[digit] = new int[bucketSizes[digit]];
+                    bucketSizes[digit] = 0;
+                }
+            }
+            // The first pass counts the names in each bucket, the second one fills the buckets.
+            for (int entry = 0; entry < size; entry++) {
+                int seen = 0;
+                for (int w = 0; w < mWordCounts[entry]; w++) {
+                    final int start = mWordStarts[mWordOffsets[entry] + w] & 0xff;
+                    final int digit = mDigits[mDigitOffsets[entry] + start];
+                    if ((seen & (1 << digit)) != 0) {
+                        continue;
+                    }
+                    seen |= 1 << digit;
+                    if (pass == 1) {
+                        mFirstDigitBuckets[digit][bucketSizes[digit]] = entry;
+                    }
+                    bucketSizes[digit]++;
+                }
+            }
+        }
+    }
+
+    /** Returns the number of names in the index. */
+    public int size() {
+        return mIds.length;
+    }
+
+    /** Returns the id given for the name at the given position. */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /** Returns the name at the given position. */
+    public String getName(int position) {
+        return mNames[position];
+    }
+
+    /** Returns a new query, initially matching every name. */
+    public Query newQuery() {
+        return new Query();
+    }
+
+    /**
+     * Collects names and their key digits. Not thread safe; typically filled and built on a
+     * background thread.
+     */
+    public static final class Builder {
+        private final SmartDialMap mMap;
+        private long[] mIds = new long[64];
+        private String[] mNames = new String[64];
+        private int[] mAffinities = new int[64];
+        private int[] mDigitOffsets = new int[64];
+        private int[] mDigitCounts = new int[64];
+        private int[] mWordOffsets = new int[64];
+        private int[] mWordCounts = new int[64];
+        private byte[] mDigits = new byte[1024];
+        private byte[] mWordStarts = new byte[256];
+        private int mSize;
+        private int mDigitCount;
+        private int mWordStartCount;
+
+        /** @param map The key map, e.g. {@link SmartDialMap#fromResources}. */
+        public Builder(SmartDialMap map) {
+            mMap = map;
+        }
+
+        /**
+         * Adds a name to the index.
+         *
+         * @param id An id identifying the name to the caller, e.g. a contact id.
+         * @param name The name.
+         * @param affinity A ranking hint; names with a higher affinity are ranked first among
+         *         matches of the same kind. For example, a contact's times contacted.
+         */
+        public Builder add(long id, String name, int affinity) {
+            if (mSize == mIds.length) {
+                final int capacity = mSize * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mNames = Arrays.copyOf(mNames, capacity);
+                mAffinities = Arrays.copyOf(mAffinities, capacity);
+                mDigitOffsets = Arrays.copyOf(mDigitOffsets, capacity);
+                mDigitCounts = Arrays.copyOf(mDigitCounts, capacity);
+                mWordOffsets = Arrays.copyOf(mWordOffsets, capacity);
+                mWordCounts = Arrays.copyOf(mWordCounts, capacity);
+            }
+            mIds[mSize] = id;
+            mNames[mSize] = name;
+            mAffinities[mSize] = affinity;
+            mDigitOffsets[mSize] = mDigitCount;
+            mWordOffsets[mSize] = mWordStartCount;
+
+            int digits = 0;
+            int words = 0;
+            boolean inWord = false;
+            for (int i = 0; i < name.length() && digits < MAX_NAME_DIGITS; i++) {
+                final int digit = mMap.getDigit(name.charAt(i));
+                if (digit == SmartDialMap.NO_DIGIT) {
+                    inWord = false;
+                    continue;
+                }
+                if (!inWord) {
+                    inWord = true;
+                    appendWordStart(digits);
+                    words++;
+                }
+                appendDigit(digit);
+                digits++;
+            }
+            mDigitCounts[mSize] = digits;
+            mWordCounts[mSize] = words;
+            mSize++;
+            return this;
+        }
+
+        private void appendDigit(int digit) {
+            if (mDigitCount == mDigits.length) {
+                mDigits = Arrays.copyOf(mDigits, mDigitCount * 2);
+            }
+            mDigits[mDigitCount++] = (byte) digit;
+        }
+
+        private void appendWordStart(int position) {
+            if (mWordStartCount == mWordStarts.length) {
+                mWordStarts = Arrays.copyOf(mWordStarts, mWordStartCount * 2);
+            }
+            mWordStarts[mWordStartCount++] = (byte) position;
+        }
+
+        public SmartDialIndex build() {
+            return new SmartDialIndex(this);
+        }
+    }
+
+    /**
+     * Incremental search over the index. Appending a digit only re-checks the names which
+     * matched the previous digits. Not thread safe; use one query per thread.
+     */
+    public final class Query {
+        private byte[] mQuery = new byte[16];
+        private int mLength;
+        /** Matching positions for each query length; level 0 is every name. */
+        private int[][] mCandidates = new int[17][];
+        private int[] mCandidateCounts = new int[17];
+        private int[] mScores = new int[0];
+
+        private Query() {
+            final int[] all = new int[size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            mCandidates[0] = all;
+            mCandidateCounts[0] = all.length;
+        }
+
+        /**
+         * Matches the digits of {@code digits}, ignoring other characters. Only the part that
+         * differs from the previous query is searched.
+         */
+        public void setQuery(CharSequence digits) {
+            int common = 0;
+            int position = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                final char c = digits.charAt(i);
+                if (c < '0' || c > '9') {
+                    continue;
+                }
+                if (position == common && common < mLength && mQuery[common] == c - '0') {
+                    common++;
+                }
+                position++;
+            }
+            mLength = common;
+            int skipped = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                final char c = digits.charAt(i);
+                if (c < '0' || c > '9') {
+                    continue;
+                }
+                if (skipped < common) {
+                    skipped++;
+                } else {
+                    append(c - '0');
+                }
+            }
+        }
+
+        /**
+         * Narrows the matches to the names which also match the given digit appended.
+         *
+         * @param digit The digit, from 0 to 9.
+         * @throws IllegalArgumentException if the digit is out of range.
+         */
+        public void append(int digit) {
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Not a digit: " + digit);
+            }
+            if (mLength == mQuery.length) {
+                mQuery = Arrays.copyOf(mQuery, mLength * 2);
+                mCandidates = Arrays.copyOf(mCandidates, mQuery.length + 1);
+                mCandidateCounts = Arrays.copyOf(mCandidateCounts, mQuery.length + 1);
+            }
+            mQuery[mLength] = (byte) digit;
+            if (mLength == 0) {
+                // The bucket is shared and never written to, as levels are only filled when
+                // narrowed from the level below them.
+                final int[] bucket = mFirstDigitBuckets[digit];
+                mLength++;
+                mCandidates[1] = bucket;
+                mCandidateCounts[1] = bucket.length;
+                return;
+            }
+            final int[] previous = mCandidates[mLength];
+            final int previousCount = mCandidateCounts[mLength];
+            mLength++;
+
+            int[] current = mCandidates[mLength];
+            if (current == null || current.length < previousCount) {
+                current = new int[previousCount];
+                mCandidates[mLength] = current;
+            }
+            int count = 0;
+            for (int i = 0; i < previousCount; i++) {
+                if (score(previous[i]) != SCORE_NONE) {
+                    current[count++] = previous[i];
+                }
+            }
+            mCandidateCounts[mLength] = count;
+        }
+
+        /** Removes the last digit, restoring the previous matches. */
+        public void removeLast() {
+            if (mLength > 0) {
+                mLength--;
+            }
+        }
+
+        /** Returns the number of names matching the digits. */
+        public int getMatchCount() {
+            return mCandidateCounts[mLength];
+        }
+
+        /**
+         * Writes the index positions of the best matches, best first.
+         *
+         * @param positions Receives positions to pass to {@link #getId} and {@link #getName}.
+         * @return The number of positions written, at most {@code positions.length}.
+         */
+        public int getTopMatches(int[] positions) {
+            final int[] candidates = mCandidates[mLength];
+            final int count = mCandidateCounts[mLength];
+            if (mScores.length < positions.length) {
+                mScores = new int[positions.length];
+            }
+            int found = 0;
+            for (int i = 0; i < count; i++) {
+                final int entry = candidates[i];
+                final int score = score(entry);
+                // Insertion into the short list of best matches so far.
+                int j = found < positions.length ? found++ : found;
+                while (j > 0 && isBetter(entry, score, positions[j - 1], mScores[j - 1])) {
+                    if (j < positions.length) {
+                        positions[j] = positions[j - 1];
+                        mScores[j] = mScores[j - 1];
+                    }
+                    j--;
+                }
+                if (j < positions.length) {
+                    positions[j] = entry;
+                    mScores[j] = score;
+                }
+            }
+            return found;
+        }
+
+        private boolean isBetter(int entry, int score, int other, int otherScore) {
+            if (score != otherScore) {
+                return score > otherScore;
+            }
+            if (mAffinities[entry] != mAffinities[other]) {
+                return mAffinities[entry] > mAffinities[other];
+            }
+            return mDigitCounts[entry] < mDigitCounts[other];
+        }
+
+        /** Returns how the name at {@code entry} matches the current digits. */
+        private int score(int entry) {
+            if (mLength == 0) {
+                return SCORE_NAME_START;
+            }
+            final int digitOffset = mDigitOffsets[entry];
+            final int digitCount = mDigitCounts[entry];
+            final int wordOffset = mWordOffsets[entry];
+            final int words = mWordCounts[entry];
+
+            if (regionMatches(digitOffset, digitCount, 0)) {
+                return SCORE_NAME_START;
+            }
+            if (mLength <= words) {
+                boolean initials = true;
+                for (int i = 0; i < mLength && initials; i++) {
+                    final int start = mWordStarts[wordOffset + i] & 0xff;
+                    initials = mDigits[digitOffset + start] == mQuery[i];
+                }
+                if (initials) {
+                    return SCORE_INITIALS;
+                }
+            }
+            for (int w = 1; w < words; w++) {
+                if (regionMatches(digitOffset, digitCount, mWordStarts[wordOffset + w] & 0xff)) {
+                    return SCORE_WORD_START;
+                }
+            }
+            return SCORE_NONE;
+        }
+
+        private boolean regionMatches(int digitOffset, int digitCount, int start) {
+            if (digitCount - start < mLength) {
+                return false;
+            }
+            for (int i = 0; i < mLength; i++) {
+                if (mDigits[digitOffset + start + i] != mQuery[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.dialpad;
+
+import android.content.res.Resources;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Maps characters to the dialpad key they are printed on, using the same localized letters as
+ * the dialpad labels ({@code R.string.dialpad_N_letters}). Latin letters are always mapped to
+ * their standard keys so that names written in Latin script can be dialed in any locale.
+ * <p>
+ * Instances are immutable and can be used from any thread.
+ */
+public final class SmartDialMap {
+    /** Returned by {@link #getDigit(char)} for characters without a key. */
+    public static final int NO_DIGIT = -1;
+
+    private static final String[] LATIN_LETTERS = new String[] {
+            "ABC", "DEF", "GHI", "JKL", "MNO", "PQRS", "TUV", "WXYZ" };
+
+    /** Mapped characters, upper case and sorted, with the digit of each in {@link #mDigits}. */
+    private final char[] mChars;
+    private final byte[] mDigits;
+
+    private SmartDialMap(String[] letters) {
+        final StringBuilder chars = new StringBuilder();
+        final StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < letters.length; i++) {
+            addLetters(letters[i], i + 2, chars, digits);
+        }
+        for (int i = 0; i < LATIN_LETTERS.length; i++) {
+            addLetters(LATIN_LETTERS[i], i + 2, chars, digits);
+        }
+
+        // Sort the characters, carrying the digits along, for binary search.
+        final long[] pairs = new long[chars.length()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) chars.charAt(i) << 8) | digits.charAt(i);
+        }
+        Arrays.sort(pairs);
+        mChars = new char[pairs.length];
+        mDigits = new byte[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            mChars[i] = (char) (pairs[i] >>> 8);
+            mDigits[i] = (byte) pairs[i];
+        }
+    }
+
+    private static void addLetters(String letters, int digit, StringBuilder chars,
+            StringBuilder digits) {
+        for (int i = 0; i < letters.length(); i++) {
+            final char c = Character.toUpperCase(letters.charAt(i));
+            if (Character.isLetter(c) && chars.indexOf(String.valueOf(c)) < 0) {
+                chars.append(c);
+                digits.append((char) digit);
+            }
+        }
+    }
+
+    /** Creates the map for the locale of the given resources. May be called on any thread. */
+    public static SmartDialMap fromResources(Resources resources) {
+        final DialpadKeyLabels labels = DialpadKeyLabels.get(resources);
+        final String[] letters = new String[8];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = labels.getLetters(i + 2);
+        }
+        return new SmartDialMap(letters);
+    }
+
+    /**
+     * Creates the map for the given localized letters of keys 2 to 9, without resources. Used
+     * by tests.
+     */
+    static SmartDialMap fromLetters(String... letters) {
+        return new SmartDialMap(letters);
+    }
+
+    /**
+     * Returns the digit of the key for a character, or {@link #NO_DIGIT}. Digits map to
+     * themselves, and accented letters map to the key of their base letter.
+     */
+    public int getDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        final int digit = lookup(Character.toUpperCase(c));
+        if (digit != NO_DIGIT || c < 0x80) {
+            return digit;
+        }
+        final String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        return decomposed.charAt(0) != c ? lookup(Character.toUpperCase(decomposed.charAt(0)))
+                : NO_DIGIT;
+    }
+
+    private int lookup(char c) {
+        final int i = Arrays.binarySearch(mChars, c);
+        return i >= 0 ? mDigits[i] : NO_DIGIT;
+    }
+}
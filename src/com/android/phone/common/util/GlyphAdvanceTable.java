@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.util;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.Locale;
+
+/**
+ * Advances of the characters a dialed number is made of, for one typeface and text size.
+ *
+ * Summing the advances of the characters of a number gives its width without shaping it again,
+ * which lets the width of the digits field be updated one keystroke at a time. Kerning is not
+ * taken into account, which makes no difference for the tabular digits of dialer fonts.
+ */
+public class GlyphAdvanceTable {
+    /** Digits, dialable symbols and the punctuation numbers are formatted with. */
+    private static final String ALPHABET = "0123456789*#+,;()-./ ";
+
+    /** Index in {@link #ALPHABET} plus one, by character, or 0 for other characters. */
+    private static final byte[] ALPHABET_INDEX = new byte[128];
+
+    private static final int CACHE_SIZE = 4;
+    /** Recently used tables, most recent first. */
+    private static final GlyphAdvanceTable[] sCache = new GlyphAdvanceTable[CACHE_SIZE];
+
+    static {
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            ALPHABET_INDEX[ALPHABET.charAt(i)] = (byte) (i + 1);
+        }
+    }
+
+    private final Typeface mTypeface;
+    private final float mTextSize;
+    private final float mTextScaleX;
+    private final float mLetterSpacing;
+    private final Locale mTextLocale;
+    private final float[] mAdvances = new float[ALPHABET.length()];
+
+    private GlyphAdvanceTable(Paint paint, float textSize) {
+        mTypeface = paint.getTypeface();
+        mTextSize = textSize;
+        mTextScaleX = paint.getTextScaleX();
+        mLetterSpacing = paint.getLetterSpacing();
+        mTextLocale = paint.getTextLocale();
+
+        final Paint measurePaint = new Paint(paint);
+        measurePaint.setTextSize(textSize);
+        measurePaint.getTextWidths(ALPHABET, mAdvances);
+    }
+
+    /**
+     * Returns the table for the typeface and text attributes of a paint, at the given size.
+     */
+    public static synchronized GlyphAdvanceTable get(Paint paint, float textSize) {
+        int index = 0;
+        for (; index < CACHE_SIZE - 1; index++) {
+            if (sCache[index] == null || sCache[index].matches(paint, textSize)) {
+                break;
+            }
+        }
+        GlyphAdvanceTable table = sCache[index];
+        if (table == null || !table.matches(paint, textSize)) {
+            table = new GlyphAdvanceTable(paint, textSize);
+        }
+        // Move it to the front, dropping the least recently used table if it is new.
+        System.arraycopy(sCache, 0, sCache, 1, index);
+        sCache[0] = table;
+        return table;
+    }
+
+    /**
+     * Returns whether the table was measured with the attributes of the given paint, at the
+     * given size.
+     */
+    public boolean matches(Paint paint, float textSize) {
+        return mTextSize == textSize
+                && mTypeface == paint.getTypeface()
+                && mTextScaleX == paint.getTextScaleX()
+                && mLetterSpacing == paint.getLetterSpacing()
+                && mTextLocale.equals(paint.getTextLocale());
+    }
+
+    /**
+     * Returns the advance of a character, or a negative value if the character is not part of
+     * the table and must be measured.
+     */
+    public float getAdvance(char c) {
+        final int index = c < ALPHABET_INDEX.length ? ALPHABET_INDEX[c] : 0;
+        return index > 0 ? mAdvances[index - 1] : -1f;
+    }
+}
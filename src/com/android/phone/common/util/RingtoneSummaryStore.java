@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import java.util.Locale;
+
+/**
+ * Persists the last resolved ringtone summaries, so that settings screens can show them before
+ * the media provider has been queried.
+ *
+ * Each summary is stored with the ringtone URI it was resolved from and the media provider
+ * generation and locale it was resolved in. A summary is only shown again in the same locale,
+ * and only stands in for a title the media provider fails to return if the ringtone and the
+ * generation are still the same. The generation changes with the media provider version, and
+ * whenever {@link RingtoneTitleCache} sees the ringtones change.
+ */
+class RingtoneSummaryStore {
+    private static final String PREFS_NAME = "ringtone_summaries";
+
+    private static final String SUFFIX_SUMMARY = ".summary";
+    private static final String SUFFIX_URI = ".uri";
+    private static final String SUFFIX_GENERATION = ".generation";
+    private static final String SUFFIX_LOCALE = ".locale";
+    private static final String KEY_INVALIDATIONS = "invalidations";
+
+    private final SharedPreferences mPrefs;
+
+    public RingtoneSummaryStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the media provider generation summaries are resolved in. Queries the media
+     * provider, so must not be called on the UI thread.
+     */
+    public String getGeneration(Context context) {
+        return MediaStore.getVersion(context) + "/" + mPrefs.getInt(KEY_INVALIDATIONS, 0);
+    }
+
+    /**
+     * Starts a new generation, so that no persisted summary stands in for a title any more.
+     * Called when the ringtones change.
+     */
+    public static void invalidate(Context context) {
+        final SharedPreferences prefs =
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        synchronized (RingtoneSummaryStore.class) {
+            prefs.edit().putInt(KEY_INVALIDATIONS, prefs.getInt(KEY_INVALIDATIONS, 0) + 1)
+                    .apply();
+        }
+    }
+
+    /**
+     * Returns the summary persisted for a ringtone setting in the current locale, or null if
+     * there is none.
+     *
+     * @param id Identifies the ringtone setting.
+     */
+    public String getSummary(String id) {
+        if (!getLocale().equals(mPrefs.getString(id + SUFFIX_LOCALE, null))) {
+            return null;
+        }
+        return mPrefs.getString(id + SUFFIX_SUMMARY, null);
+    }
+
+    /**
+     * Returns the summary persisted for a ringtone setting if it was resolved from the given
+     * ringtone in the given media provider generation and the current locale, or null otherwise.
+     *
+     * @param id Identifies the ringtone setting.
+     * @param ringtoneUri The actual URI of the ringtone.
+     * @param generation The current media provider generation.
+     */
+    public String getSummary(String id, Uri ringtoneUri, String generation) {
+        if (generation == null
+                || !generation.equals(mPrefs.getString(id + SUFFIX_GENERATION, null))
+                || !ringtoneUri.toString().equals(mPrefs.getString(id + SUFFIX_URI, null))) {
+            return null;
+        }
+        return getSummary(id);
+    }
+
+    /**
+     * Persists the summary of a ringtone setting, unless it is already persisted.
+     *
+     * @param id Identifies the ringtone setting.
+     * @param ringtoneUri The actual URI of the ringtone, or null if it is silent.
+     * @param generation The media provider generation the summary was resolved in.
+     * @param summary The summary.
+     */
+    public void putSummary(String id, Uri ringtoneUri, String generation, String summary) {
+        final String uriString = ringtoneUri != null ? ringtoneUri.toString() : "";
+        final String locale = getLocale();
+        if (TextUtils.equals(summary, mPrefs.getString(id + SUFFIX_SUMMARY, null))
+                && uriString.equals(mPrefs.getString(id + SUFFIX_URI, null))
+                && TextUtils.equals(generation, mPrefs.getString(id + SUFFIX_GENERATION, null))
+                && locale.equals(mPrefs.getString(id + SUFFIX_LOCALE, null))) {
+            return;
+        }
+        mPrefs.edit()
+                .putString(id + SUFFIX_SUMMARY, summary)
+                .putString(id + SUFFIX_URI, uriString)
+                .putString(id + SUFFIX_GENERATION, generation)
+                .putString(id + SUFFIX_LOCALE, locale)
+                .apply();
+    }
+
+    private static String getLocale() {
+        return Locale.getDefault().toString();
+    }
+}
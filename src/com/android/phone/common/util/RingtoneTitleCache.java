@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.MediaStore.MediaColumns;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of ringtone titles, keyed by the ringtone URI.
+ *
+ * Resolving a title through {@link Ringtone#getTitle} queries the media provider, which settings
+ * screens would otherwise do every time they are shown. Cached titles are dropped whenever the
+ * media provider's audio tables or the default ringtone, notification or alarm sound change,
+ * along with the generation of the summaries persisted by {@link RingtoneSummaryStore}.
+ *
+ * This class is thread-safe.
+ */
+public class RingtoneTitleCache {
+    private static final int MAX_ENTRIES = 32;
+
+    private static final LruCache<Uri, String> sTitles = new LruCache<Uri, String>(MAX_ENTRIES);
+    private static final String[] TITLE_PROJECTION = new String[] {
+            BaseColumns._ID, MediaColumns.TITLE };
+    private static final String[] TITLE_ONLY_PROJECTION = new String[] { MediaColumns.TITLE };
+
+    /**
+     * How long persisted summaries are invalidated after the ringtones change, so that a media
+     * scan reporting many changes invalidates them once.
+     */
+    private static final long INVALIDATE_DELAY_MILLIS = 1000;
+
+    private static ContentObserver sObserver;
+    /** Whether a persisted summary invalidation is posted; guarded by the class. */
+    private static boolean sInvalidatePending;
+    /** Incremented on every invalidation, so that titles read before it are not cached. */
+    private static volatile int sGeneration;
+
+    /**
+     * Returns the title of a ringtone, or null if it is unknown.
+     *
+     * @param context The context.
+     * @param ringtoneUri The URI of the ringtone. Default URIs such as
+     *         {@link Settings.System#DEFAULT_NOTIFICATION_URI} are resolved to
+     *         the ringtone they currently point at.
+     */
+    public static String getTitle(Context context, Uri ringtoneUri) {
+        registerObserverIfNeeded(context);
+        String title = sTitles.get(ringtoneUri);
+        if (title != null) {
+            return title;
+        }
+        final int generation = sGeneration;
+        title = queryTitle(context, ringtoneUri);
+        if (!TextUtils.isEmpty(title) && generation == sGeneration) {
+            sTitles.put(ringtoneUri, title);
+        }
+        return title;
+    }
+
+    /**
+     * Returns the titles of several ringtones, null for those unknown. Ringtones stored in the
+     * same media provider table are resolved by a single query.
+     *
+     * @param context The context.
+     * @param ringtoneUris The URIs of the ringtones, as for {@link #getTitle}. Null entries are
+     *         allowed.
+     */
+    public static String[] getTitles(Context context, Uri[] ringtoneUris) {
+        registerObserverIfNeeded(context);
+        final int count = ringtoneUris.length;
+        final String[] titles = new String[count];
+        final int generation = sGeneration;
+        // Missing MediaStore ids, grouped by the table they are stored in.
+        final HashMap<Uri, ArrayList<Integer>> missing = new HashMap<Uri, ArrayList<Integer>>();
+        for (int i = 0; i < count; i++) {
+            final Uri uri = ringtoneUris[i];
+            if (uri == null) {
+                continue;
+            }
+            titles[i] = sTitles.get(uri);
+            if (titles[i] != null) {
+                continue;
+            }
+            final Uri table = getMediaStoreTable(uri);
+            if (table != null) {
+                ArrayList<Integer> indices = missing.get(table);
+                if (indices == null) {
+                    indices = new ArrayList<Integer>();
+                    missing.put(table, indices);
+                }
+                indices.add(i);
+            } else {
+                titles[i] = queryTitle(context, uri);
+            }
+        }
+        for (Map.Entry<Uri, ArrayList<Integer>> entry : missing.entrySet()) {
+            queryTitles(context, entry.getKey(), entry.getValue(), ringtoneUris, titles);
+        }
+        if (generation == sGeneration) {
+            for (int i = 0; i < count; i++) {
+                if (!TextUtils.isEmpty(titles[i])) {
+                    sTitles.put(ringtoneUris[i], titles[i]);
+                }
+            }
+        }
+        return titles;
+    }
+
+    /** Drops all cached titles. */
+    public static void clear() {
+        sGeneration++;
+        sTitles.evictAll();
+    }
+
+    /**
+     * Looks up the title of a ringtone. Media provider items are read directly from the
+     * provider, other ringtones through {@link Ringtone#getTitle}.
+     */
+    private static String queryTitle(Context context, Uri ringtoneUri) {
+        if (RingtoneManager.isDefault(ringtoneUri)) {
+            // Default URIs such as Settings.System.DEFAULT_NOTIFICATION_URI point at a setting
+            // holding the actual ringtone.
+            ringtoneUri = RingtoneManager.getActualDefaultRingtoneUri(
+                    context, RingtoneManager.getDefaultType(ringtoneUri));
+            if (ringtoneUri == null) {
+                return null;
+            }
+        }
+        if (getMediaStoreTable(ringtoneUri) == null) {
+            return queryRingtoneTitle(context, ringtoneUri);
+        }
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    ringtoneUri, TITLE_ONLY_PROJECTION, null, null, null);
+            return cursor != null && cursor.moveToFirst() ? cursor.getString(0) : null;
+        } catch (SQLiteException | SecurityException e) {
+            // The item can't be read directly, let Ringtone try its own fallbacks.
+            return queryRingtoneTitle(context, ringtoneUri);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static String queryRingtoneTitle(Context context, Uri ringtoneUri) {
+        final Ringtone ringtone = RingtoneManager.getRingtone(context, ringtoneUri);
+        if (ringtone == null) {
+            return null;
+        }
+        try {
+            return ringtone.getTitle(context);
+        } catch (SQLiteException sqle) {
+            // Unknown title for the ringtone
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the titles of the ringtones at the given indices, which are all stored in the
+     * given media provider table.
+     */
+    private static void queryTitles(Context context, Uri table, ArrayList<Integer> indices,
+            Uri[] ringtoneUris, String[] titles) {
+        final int count = indices.size();
+        final String[] ids = new String[count];
+        final StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            ids[i] = ringtoneUris[indices.get(i)].getLastPathSegment();
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        final HashMap<String, String> titlesById = new HashMap<String, String>();
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    table, TITLE_PROJECTION, selection.toString(), ids, null);
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                titlesById.put(cursor.getString(0), cursor.getString(1));
+            }
+        } catch (SQLiteException | SecurityException e) {
+            // The table can't be read, fall back to the Ringtone lookup.
+            for (int index : indices) {
+                titles[index] = queryRingtoneTitle(context, ringtoneUris[index]);
+            }
+            return;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            titles[indices.get(i)] = titlesById.get(ids[i]);
+        }
+    }
+
+    /**
+     * Returns the media provider table a ringtone is stored in, or null if the ringtone is not a
+     * media provider item.
+     */
+    private static Uri getMediaStoreTable(Uri uri) {
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !TextUtils.isDigitsOnly(segments.get(segments.size() - 1))) {
+            return null;
+        }
+        final Uri.Builder builder = uri.buildUpon().path(null).query(null).fragment(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private static synchronized void registerObserverIfNeeded(Context context) {
+        if (sObserver != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final Runnable invalidate = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RingtoneTitleCache.class) {
+                    sInvalidatePending = false;
+                }
+                RingtoneSummaryStore.invalidate(appContext);
+            }
+        };
+        sObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                clear();
+                synchronized (RingtoneTitleCache.class) {
+                    if (sInvalidatePending) {
+                        return;
+                    }
+                    sInvalidatePending = true;
+                }
+                handler.postDelayed(invalidate, INVALIDATE_DELAY_MILLIS);
+            }
+        };
+        final ContentResolver resolver = appContext.getContentResolver();
+        resolver.registerContentObserver(
+                MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, sObserver);
+        resolver.registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, sObserver);
+        resolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.RINGTONE), false, sObserver);
+        resolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.NOTIFICATION_SOUND), false, sObserver);
+        resolver.registerContentObserver(
+                Settings.System.getUriFor(Settings.System.ALARM_ALERT), false, sObserver);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.phone.common.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.os.Vibrator;
+import android.preference.PreferenceManager;
+import android.provider.Settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the settings the dialpad consults on every key press in memory.
+ *
+ * The settings are read once, then kept up to date by observing {@link Settings.System} and the
+ * default shared preferences. Each change publishes a new immutable {@link Snapshot}, so reading
+ * a setting is a single volatile read, with no Binder call or disk access.
+ */
+public class SettingsMonitor {
+    private static SettingsMonitor sInstance;
+
+    private final Context mContext;
+    private final boolean mHasVibrator;
+    /** Tracked preference keys and their default values. Guarded by this. */
+    private final HashMap<String, Boolean> mPreferenceDefaults = new HashMap<String, Boolean>();
+    private volatile Snapshot mSnapshot;
+
+    private final ContentObserver mSettingsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reload();
+        }
+    };
+
+    // SharedPreferences only keeps weak references to its listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            final boolean tracked;
+            synchronized (SettingsMonitor.this) {
+                tracked = mPreferenceDefaults.containsKey(key);
+            }
+            if (tracked) {
+                reload();
+            }
+        }
+    };
+
+    /**
+     * An immutable view of the monitored settings.
+     */
+    public static final class Snapshot {
+        private final boolean mDtmfToneEnabled;
+        private final int mDtmfToneType;
+        private final boolean mHapticFeedbackEnabled;
+        private final boolean mHasVibrator;
+        private final Map<String, Boolean> mPreferences;
+
+        private Snapshot(boolean dtmfToneEnabled, int dtmfToneType, boolean hapticFeedbackEnabled,
+                boolean hasVibrator, Map<String, Boolean> preferences) {
+            mDtmfToneEnabled = dtmfToneEnabled;
+            mDtmfToneType = dtmfToneType;
+            mHapticFeedbackEnabled = hapticFeedbackEnabled;
+            mHasVibrator = hasVibrator;
+            mPreferences = preferences;
+        }
+
+        /** Whether touch tones are played when dialing. */
+        public boolean isDtmfToneEnabled() {
+            return mDtmfToneEnabled;
+        }
+
+        /** The {@link Settings.System#DTMF_TONE_TYPE_WHEN_DIALING} setting. */
+        public int getDtmfToneType() {
+            return mDtmfToneType;
+        }
+
+        /** Whether the user enabled haptic feedback. */
+        public boolean isHapticFeedbackEnabled() {
+            return mHapticFeedbackEnabled;
+        }
+
+        /** Whether the device has a vibrator. */
+        public boolean hasVibrator() {
+            return mHasVibrator;
+        }
+
+        /** Whether haptic feedback should be given on key presses. */
+        public boolean shouldVibrate() {
+            return mHapticFeedbackEnabled && mHasVibrator;
+        }
+
+        /**
+         * Returns the value of a preference registered with {@link #trackPreference}.
+         *
+         * @param key The key of the preference.
+         * @param defaultValue The value returned if the preference is not tracked.
+         */
+        public boolean getBoolean(String key, boolean defaultValue) {
+            final Boolean value = mPreferences.get(key);
+            return value != null ? value : defaultValue;
+        }
+    }
+
+    /**
+     * Returns the monitor of the process, reading the settings if this is the first call.
+     */
+    public static synchronized SettingsMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SettingsMonitor(Context context) {
+        mContext = context;
+        final Vibrator vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        mHasVibrator = vibrator != null && vibrator.hasVibrator();
+
+        final ContentResolver resolver = context.getContentResolver();
+        resolver.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.DTMF_TONE_WHEN_DIALING), false, mSettingsObserver);
+        resolver.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.DTMF_TONE_TYPE_WHEN_DIALING), false, mSettingsObserver);
+        resolver.registerContentObserver(Settings.System.getUriFor(
+                Settings.System.HAPTIC_FEEDBACK_ENABLED), false, mSettingsObserver);
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(mPreferenceListener);
+        reload();
+    }
+
+    /** Returns the current settings. Never blocks. */
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Starts tracking a boolean preference of the default shared preferences, so that it can be
+     * read with {@link Snapshot#getBoolean}.
+     *
+     * @param key The key of the preference.
+     * @param defaultValue The value of the preference when it is not set.
+     */
+    public void trackPreference(String key, boolean defaultValue) {
+        synchronized (this) {
+            final Boolean previous = mPreferenceDefaults.put(key, defaultValue);
+            if (previous != null && previous == defaultValue) {
+                return;
+            }
+        }
+        reload();
+    }
+
+    private synchronized void reload() {
+        final ContentResolver resolver = mContext.getContentResolver();
+        final boolean dtmfToneEnabled =
+                Settings.System.getInt(resolver, Settings.System.DTMF_TONE_WHEN_DIALING, 1) == 1;
+        final int dtmfToneType =
+                Settings.System.getInt(resolver, Settings.System.DTMF_TONE_TYPE_WHEN_DIALING, 0);
+        final boolean hapticFeedbackEnabled =
+                Settings.System.getInt(resolver, Settings.System.HAPTIC_FEEDBACK_ENABLED, 0) == 1;
+
+        final HashMap<String, Boolean> preferences = new HashMap<String, Boolean>();
+        if (!mPreferenceDefaults.isEmpty()) {
+            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            for (Map.Entry<String, Boolean> entry : mPreferenceDefaults.entrySet()) {
+                preferences.put(entry.getKey(),
+                        prefs.getBoolean(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        mSnapshot = new Snapshot(dtmfToneEnabled, dtmfToneType, hapticFeedbackEnabled,
+                mHasVibrator, Collections.unmodifiableMap(preferences));
+    }
+}
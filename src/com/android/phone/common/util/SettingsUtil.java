@@ -18,28 +18,47 @@ package com.android.phone.common.util;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Handler;
-import android.os.Vibrator;
-import android.preference.Preference;
 import android.preference.PreferenceManager;
-import android.provider.MediaStore;
 import android.provider.Settings;
 import android.text.TextUtils;
 
 import com.android.phone.common.R;
 
-import java.lang.CharSequence;
-import java.lang.String;
+import java.util.concurrent.Executor;
 
 public class SettingsUtil {
     private static final String DEFAULT_NOTIFICATION_URI_STRING =
             Settings.System.DEFAULT_NOTIFICATION_URI.toString();
 
+    /**
+     * A ringtone summary to resolve with {@link #updateRingtoneNames}.
+     */
+    public static class RingtoneRequest {
+        private final int mType;
+        private final String mKey;
+        private final int mMsg;
+
+        /**
+         * @param type The type of sound.
+         * @param key The key to the shared preferences entry being updated.
+         * @param msg An integer identifying the message sent to the handler.
+         */
+        public RingtoneRequest(int type, String key, int msg) {
+            mType = type;
+            mKey = key;
+            mMsg = msg;
+        }
+
+        /** Identifies the setting this ringtone is for. */
+        private String getId() {
+            return mType + ":" + mKey;
+        }
+    }
+
     /**
      * Queries for a ringtone name, and sets the name using a handler.
      * This is a method was originally copied from com.android.settings.SoundSettings.
@@ -52,52 +71,156 @@ public class SettingsUtil {
      */
     public static void updateRingtoneName(
             Context context, Handler handler, int type, String key, int msg) {
-        final Uri ringtoneUri;
-        boolean defaultRingtone = false;
+        final RingtoneRequest[] requests = new RingtoneRequest[] {
+                new RingtoneRequest(type, key, msg) };
+        // Persisted summaries are not read or written here, to keep disk I/O off this path.
+        final CharSequence[] summaries = resolveSummaries(context, requests, null);
+        handler.sendMessage(handler.obtainMessage(msg, summaries[0]));
+    }
+
+    /**
+     * Queries for several ringtone names on a background thread, and sets them using a handler.
+     * The media provider is queried once for all the ringtones.
+     *
+     * The names persisted by the previous call are read on the background thread too, and
+     * delivered together on the handler's thread before the media provider is queried. The
+     * resolved names are then delivered together as well, but only those which changed.
+     *
+     * @param context The context.
+     * @param handler The handler, which takes the name of each ringtone as a String as a
+     *         parameter.
+     * @param requests The ringtones to resolve.
+     * @param executor The executor to resolve the ringtones on.
+     */
+    public static void updateRingtoneNames(Context context, final Handler handler,
+            final RingtoneRequest[] requests, Executor executor) {
+        final Context appContext = context.getApplicationContext();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final RingtoneSummaryStore store = new RingtoneSummaryStore(appContext);
+                final int count = requests.length;
+                final String[] shownSummaries = new String[count];
+                for (int i = 0; i < count; i++) {
+                    shownSummaries[i] = store.getSummary(requests[i].getId());
+                }
+                dispatchSummaries(handler, requests, shownSummaries, null);
+                final CharSequence[] summaries = resolveSummaries(appContext, requests, store);
+                dispatchSummaries(handler, requests, summaries, shownSummaries);
+            }
+        });
+    }
+
+    /**
+     * Delivers the summaries which are known and differ from the ones shown, with a single post
+     * to the handler's thread.
+     */
+    private static void dispatchSummaries(final Handler handler, final RingtoneRequest[] requests,
+            final CharSequence[] summaries, final CharSequence[] shownSummaries) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < requests.length; i++) {
+                    if (summaries[i] != null && (shownSummaries == null
+                            || !TextUtils.equals(summaries[i], shownSummaries[i]))) {
+                        handler.dispatchMessage(
+                                handler.obtainMessage(requests[i].mMsg, summaries[i]));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #updateRingtoneNames(Context, Handler, RingtoneRequest[], Executor)}, using
+     * the {@link AsyncTask#THREAD_POOL_EXECUTOR}.
+     */
+    public static void updateRingtoneNames(
+            Context context, Handler handler, RingtoneRequest[] requests) {
+        updateRingtoneNames(context, handler, requests, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /** The actual URI of a ringtone, and whether it is the system default notification sound. */
+    private static class ResolvedRingtone {
+        private final Uri mUri;
+        private final boolean mDefaultRingtone;
+
+        private ResolvedRingtone(Uri uri, boolean defaultRingtone) {
+            mUri = uri;
+            mDefaultRingtone = defaultRingtone;
+        }
+    }
+
+    /**
+     * Resolves the summaries of several ringtones, and persists them in the given store if there
+     * is one.
+     */
+    private static CharSequence[] resolveSummaries(
+            Context context, RingtoneRequest[] requests, RingtoneSummaryStore store) {
+        final int count = requests.length;
+        final ResolvedRingtone[] ringtones = new ResolvedRingtone[count];
+        final Uri[] uris = new Uri[count];
+        for (int i = 0; i < count; i++) {
+            ringtones[i] = resolveRingtone(context, requests[i].mType, requests[i].mKey);
+            uris[i] = ringtones[i].mUri;
+        }
+        final String[] titles = RingtoneTitleCache.getTitles(context, uris);
+        final String generation = store != null ? store.getGeneration(context) : null;
+        final CharSequence[] summaries = new CharSequence[count];
+        for (int i = 0; i < count; i++) {
+            final String id = requests[i].getId();
+            if (store != null && uris[i] != null && TextUtils.isEmpty(titles[i])) {
+                // The media provider did not return the title, keep the persisted summary if it
+                // is still about the same ringtone.
+                summaries[i] = store.getSummary(id, uris[i], generation);
+                if (summaries[i] != null) {
+                    continue;
+                }
+            }
+            summaries[i] = getSummary(context, ringtones[i], titles[i]);
+            if (store != null) {
+                store.putSummary(id, uris[i], generation, summaries[i].toString());
+            }
+        }
+        return summaries;
+    }
+
+    private static ResolvedRingtone resolveRingtone(Context context, int type, String key) {
         if (type == RingtoneManager.TYPE_RINGTONE) {
             // For ringtones, we can just lookup the system default because changing the settings
             // in Call Settings changes the system default.
-            ringtoneUri = RingtoneManager.getActualDefaultRingtoneUri(context, type);
-        } else {
-            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            // For voicemail notifications, we use the value saved in Phone's shared preferences.
-            String uriString = prefs.getString(key, DEFAULT_NOTIFICATION_URI_STRING);
-            if (TextUtils.isEmpty(uriString)) {
-                // silent ringtone
-                ringtoneUri = null;
-            } else {
-                if (uriString.equals(DEFAULT_NOTIFICATION_URI_STRING)) {
-                    // If it turns out that the voicemail notification is set to the system
-                    // default notification, we retrieve the actual URI to prevent it from showing
-                    // up as "Unknown Ringtone".
-                    defaultRingtone = true;
-                    ringtoneUri = RingtoneManager.getActualDefaultRingtoneUri(context, type);
-                } else {
-                    ringtoneUri = Uri.parse(uriString);
-                }
-            }
+            return new ResolvedRingtone(
+                    RingtoneManager.getActualDefaultRingtoneUri(context, type), false);
+        }
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        // For voicemail notifications, we use the value saved in Phone's shared preferences.
+        String uriString = prefs.getString(key, DEFAULT_NOTIFICATION_URI_STRING);
+        if (TextUtils.isEmpty(uriString)) {
+            // silent ringtone
+            return new ResolvedRingtone(null, false);
         }
+        if (uriString.equals(DEFAULT_NOTIFICATION_URI_STRING)) {
+            // If it turns out that the voicemail notification is set to the system
+            // default notification, we retrieve the actual URI to prevent it from showing
+            // up as "Unknown Ringtone".
+            return new ResolvedRingtone(
+                    RingtoneManager.getActualDefaultRingtoneUri(context, type), true);
+        }
+        return new ResolvedRingtone(Uri.parse(uriString), false);
+    }
+
+    private static CharSequence getSummary(
+            Context context, ResolvedRingtone ringtone, String title) {
         CharSequence summary = context.getString(R.string.ringtone_unknown);
         // Is it a silent ringtone?
-        if (ringtoneUri == null) {
+        if (ringtone.mUri == null) {
             summary = context.getString(R.string.ringtone_silent);
-        } else {
-            // Fetch the ringtone title from the media provider
-            final Ringtone ringtone = RingtoneManager.getRingtone(context, ringtoneUri);
-            if (ringtone != null) {
-                try {
-                    final String title = ringtone.getTitle(context);
-                    if (!TextUtils.isEmpty(title)) {
-                        summary = title;
-                    }
-                } catch (SQLiteException sqle) {
-                    // Unknown title for the ringtone
-                }
-            }
+        } else if (!TextUtils.isEmpty(title)) {
+            summary = title;
         }
-        if (defaultRingtone) {
+        if (ringtone.mDefaultRingtone) {
             summary = context.getString(R.string.default_notification_description, summary);
         }
-        handler.sendMessage(handler.obtainMessage(msg, summary));
+        return summary;
     }
 }
@@ -19,6 +19,7 @@ package com.android.phone.common.util;
 import android.content.res.Resources;
 import android.graphics.Outline;
 import android.graphics.Paint;
+import android.graphics.Typeface;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
@@ -32,6 +33,18 @@ import com.android.phone.common.R;
  * Provides static functions to work with views
  */
 public class ViewUtil {
+    // Text sizes fitted by resizeText(), so that showing the same number in the same view again
+    // (redial, rotation) does not measure it again. Direct-mapped, and only used on the UI thread.
+    private static final int FIT_CACHE_SIZE = 64;
+    private static final long[] sFitTextHashes = new long[FIT_CACHE_SIZE];
+    private static final int[] sFitTextLengths = new int[FIT_CACHE_SIZE];
+    /** 0 for empty entries, as resizeText() ignores views without a width. */
+    private static final int[] sFitWidths = new int[FIT_CACHE_SIZE];
+    private static final int[] sFitOriginalTextSizes = new int[FIT_CACHE_SIZE];
+    private static final int[] sFitMinTextSizes = new int[FIT_CACHE_SIZE];
+    private static final Typeface[] sFitTypefaces = new Typeface[FIT_CACHE_SIZE];
+    private static final float[] sFitTextSizes = new float[FIT_CACHE_SIZE];
+
     private ViewUtil() {}
 
     /**
@@ -92,15 +105,101 @@ public class ViewUtil {
         listView.setClipToPadding(false);
     }
 
+    /**
+     * Shrinks the text size of a view so that its text fits in its width, but not below the
+     * minimum size. The text is measured in place, and the text size is only set if it changes.
+     * Fitted sizes are cached by text, view width, sizes and typeface.
+     *
+     * @param textView The view to resize the text of.
+     * @param originalTextSize The size of the text when it fits, in pixels.
+     * @param minTextSize The minimum size of the text, in pixels.
+     */
     public static void resizeText(TextView textView, int originalTextSize, int minTextSize) {
-        final Paint paint = textView.getPaint();
+        resizeText(textView, Float.NaN, originalTextSize, minTextSize);
+    }
+
+    /**
+     * Same as {@link #resizeText(TextView, int, int)}, for a view whose text width at the original
+     * size is already known. The text is only measured if the width is {@link Float#NaN}.
+     *
+     * @param textView The view to resize the text of.
+     * @param textWidth The width of the text of the view at the original size, in pixels.
+     * @param originalTextSize The size of the text when it fits, in pixels.
+     * @param minTextSize The minimum size of the text, in pixels.
+     */
+    public static void resizeText(TextView textView, float textWidth, int originalTextSize,
+            int minTextSize) {
         final int width = textView.getWidth();
         if (width == 0) return;
-        textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, originalTextSize);
-        float ratio = width / paint.measureText(textView.getText().toString());
-        if (ratio <= 1.0f) {
-            textView.setTextSize(TypedValue.COMPLEX_UNIT_PX,
-                    Math.max(minTextSize, originalTextSize * ratio));
+        final CharSequence text = textView.getText();
+        final Paint paint = textView.getPaint();
+        final Typeface typeface = paint.getTypeface();
+        final int length = text.length();
+        final long textHash = hashText(text);
+
+        final int slot = (int) (textHash ^ (textHash >>> 32) ^ width * 31 ^ originalTextSize * 17
+                ^ minTextSize) & (FIT_CACHE_SIZE - 1);
+        if (sFitWidths[slot] == width
+                && sFitTextHashes[slot] == textHash
+                && sFitTextLengths[slot] == length
+                && sFitOriginalTextSizes[slot] == originalTextSize
+                && sFitMinTextSizes[slot] == minTextSize
+                && sFitTypefaces[slot] == typeface) {
+            setTextSizeIfChanged(textView, sFitTextSizes[slot]);
+            return;
+        }
+
+        if (Float.isNaN(textWidth)) {
+            textWidth = measureText(paint, text, 0, length, originalTextSize);
+        }
+        final float textSize = getFittedTextSize(width, textWidth, originalTextSize, minTextSize);
+        sFitWidths[slot] = width;
+        sFitTextHashes[slot] = textHash;
+        sFitTextLengths[slot] = length;
+        sFitOriginalTextSizes[slot] = originalTextSize;
+        sFitMinTextSizes[slot] = minTextSize;
+        sFitTypefaces[slot] = typeface;
+        sFitTextSizes[slot] = textSize;
+        setTextSizeIfChanged(textView, textSize);
+    }
+
+    /** Returns a 64-bit FNV-1a hash of a text, without converting it to a String. */
+    private static long hashText(CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Measures part of a text as if the paint had the given text size, without changing it.
+     */
+    private static float measureText(Paint paint, CharSequence text, int start, int end,
+            float textSize) {
+        final float previousTextSize = paint.getTextSize();
+        paint.setTextSize(textSize);
+        final float textWidth = paint.measureText(text, start, end);
+        paint.setTextSize(previousTextSize);
+        return textWidth;
+    }
+
+    /**
+     * Returns the text size at which a text measuring {@code textWidth} at
+     * {@code originalTextSize} fits in {@code width}, but not less than {@code minTextSize}.
+     */
+    private static float getFittedTextSize(int width, float textWidth, int originalTextSize,
+            int minTextSize) {
+        if (textWidth <= width) {
+            return originalTextSize;
+        }
+        return Math.max(minTextSize, originalTextSize * width / textWidth);
+    }
+
+    private static void setTextSizeIfChanged(TextView textView, float textSize) {
+        if (textView.getTextSize() != textSize) {
+            textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSize);
         }
     }
 }
@@ -18,10 +18,12 @@ package com.android.phone.common.widget;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.widget.EditText;
 
 import com.android.phone.common.R;
+import com.android.phone.common.util.GlyphAdvanceTable;
 import com.android.phone.common.util.ViewUtil;
 
 /**
@@ -31,6 +33,13 @@ public class ResizingTextEditText extends EditText {
     private final int mOriginalTextSize;
     private final int mMinTextSize;
 
+    // Width of the text at the original size, kept up to date one edit at a time from the
+    // advance of each character.
+    private GlyphAdvanceTable mAdvanceTable;
+    private float[] mAdvances = new float[32];
+    private int mAdvanceCount;
+    private float mTextWidth;
+
     public ResizingTextEditText(Context context, AttributeSet attrs) {
         super(context, attrs);
         mOriginalTextSize = (int) getTextSize();
@@ -43,12 +52,65 @@ public class ResizingTextEditText extends EditText {
     @Override
     protected void onTextChanged(CharSequence text, int start, int lengthBefore, int lengthAfter) {
         super.onTextChanged(text, start, lengthBefore, lengthAfter);
-        ViewUtil.resizeText(this, mOriginalTextSize, mMinTextSize);
+        if (mAdvances == null) {
+            // Called by the TextView constructor, before our fields are initialized.
+            return;
+        }
+        updateTextWidth(text, start, lengthBefore, lengthAfter);
+        ViewUtil.resizeText(this, mTextWidth, mOriginalTextSize, mMinTextSize);
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        ViewUtil.resizeText(this, mOriginalTextSize, mMinTextSize);
+        // Only measures the text again if the typeface changed.
+        updateTextWidth(getText(), 0, 0, 0);
+        ViewUtil.resizeText(this, mTextWidth, mOriginalTextSize, mMinTextSize);
+    }
+
+    /**
+     * Updates the width of the text after {@code lengthBefore} characters at {@code start} were
+     * replaced by {@code lengthAfter} characters.
+     */
+    private void updateTextWidth(CharSequence text, int start, int lengthBefore,
+            int lengthAfter) {
+        final Paint paint = getPaint();
+        if (mAdvanceTable == null || !mAdvanceTable.matches(paint, mOriginalTextSize)
+                || mAdvanceCount != text.length() - lengthAfter + lengthBefore) {
+            // The typeface changed, or we missed an edit: measure the whole text again.
+            mAdvanceTable = GlyphAdvanceTable.get(paint, mOriginalTextSize);
+            mAdvanceCount = 0;
+            mTextWidth = 0;
+            start = 0;
+            lengthBefore = 0;
+            lengthAfter = text.length();
+        }
+
+        for (int i = start; i < start + lengthBefore; i++) {
+            mTextWidth -= mAdvances[i];
+        }
+        final int count = mAdvanceCount - lengthBefore + lengthAfter;
+        if (count > mAdvances.length) {
+            final float[] advances = new float[Math.max(count, mAdvances.length * 2)];
+            System.arraycopy(mAdvances, 0, advances, 0, mAdvanceCount);
+            mAdvances = advances;
+        }
+        System.arraycopy(mAdvances, start + lengthBefore, mAdvances, start + lengthAfter,
+                mAdvanceCount - start - lengthBefore);
+        for (int i = start; i < start + lengthAfter; i++) {
+            float advance = mAdvanceTable.getAdvance(text.charAt(i));
+            if (advance < 0) {
+                // Not a dialable character, measure it at the current size and scale it.
+                advance = paint.measureText(text, i, i + 1) * mOriginalTextSize
+                        / paint.getTextSize();
+            }
+            mAdvances[i] = advance;
+            mTextWidth += advance;
+        }
+        mAdvanceCount = count;
+        if (count == 0) {
+            // Don't let rounding errors accumulate.
+            mTextWidth = 0;
+        }
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class FrecencyRankerTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+    private static final long NOW = 1450000000000L;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void scoreDecaysWithHalfLife() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("5551234", NOW);
+        assertEquals(1.0, ranker.getScore("5551234", NOW), DELTA);
+        assertEquals(0.5, ranker.getScore("5551234", NOW + DAY), DELTA);
+        assertEquals(0.25, ranker.getScore("5551234", NOW + 2 * DAY), DELTA);
+        ranker.recordCall("5551234", NOW + DAY);
+        assertEquals(1.5, ranker.getScore("5551234", NOW + DAY), DELTA);
+    }
+
+    @Test
+    public void unknownNumbersScoreZero() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        assertEquals(0.0, ranker.getScore("5551234", NOW), 0);
+        assertEquals(0.0, ranker.getScore("1234567890123456", NOW), 0);
+    }
+
+    @Test
+    public void formattingIsIgnored() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("(555) 123-4567", NOW);
+        ranker.recordCall("555.123.4567", NOW);
+        assertEquals(1, ranker.size());
+        assertEquals(2.0, ranker.getScore("5551234567", NOW), DELTA);
+    }
+
+    @Test
+    public void leadingZerosAreDistinct() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("0", NOW);
+        ranker.recordCall("00", NOW);
+        assertEquals(2, ranker.size());
+        assertEquals(1.0, ranker.getScore("0", NOW), DELTA);
+    }
+
+    @Test
+    public void ignoresEmptyAndUnpackableNumbers() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("", NOW);
+        ranker.recordCall("--", NOW);
+        ranker.recordCall("1234567890123456", NOW);
+        assertEquals(0, ranker.size());
+        assertEquals(0, ranker.getTop(new long[4]));
+
+        ranker.recordCall("123456789012345", NOW);
+        assertEquals(1, ranker.size());
+    }
+
+    @Test
+    public void topListOrdersByScore() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("1", NOW);
+        ranker.recordCall("2", NOW + HOUR);
+        ranker.recordCall("3", NOW + 2 * HOUR);
+        assertArrayEquals(new String[] { "3", "2", "1" }, ranker.getTopNumbers(10));
+        assertArrayEquals(new String[] { "3" }, ranker.getTopNumbers(1));
+
+        // Two calls a day ago outweigh one call an hour ago.
+        ranker.recordCall("1", NOW);
+        assertArrayEquals(new String[] { "1", "3", "2" }, ranker.getTopNumbers(10));
+
+        final long[] keys = new long[2];
+        assertEquals(2, ranker.getTop(keys));
+        assertEquals("1", PackedNumberStore.unpackLong(keys[0]));
+        assertEquals("3", PackedNumberStore.unpackLong(keys[1]));
+    }
+
+    @Test
+    public void topListEvictsLowest() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 2);
+        ranker.recordCall("1", NOW);
+        ranker.recordCall("2", NOW + HOUR);
+        ranker.recordCall("3", NOW + 2 * HOUR);
+        assertEquals(3, ranker.size());
+        assertArrayEquals(new String[] { "3", "2" }, ranker.getTopNumbers(10));
+
+        ranker.recordCall("1", NOW + 3 * HOUR);
+        assertArrayEquals(new String[] { "1", "3" }, ranker.getTopNumbers(10));
+
+        // An older call does not displace the lowest entry.
+        ranker.recordCall("4", NOW);
+        assertArrayEquals(new String[] { "1", "3" }, ranker.getTopNumbers(10));
+    }
+
+    @Test
+    public void zeroTopCapacity() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 0);
+        ranker.recordCall("1", NOW);
+        assertEquals(1, ranker.size());
+        assertEquals(0, ranker.getTopNumbers(10).length);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 10);
+        for (int i = 1; i <= 1000; i++) {
+            ranker.recordCall(Integer.toString(i), NOW + i);
+        }
+        assertEquals(1000, ranker.size());
+        for (int i = 1; i <= 1000; i++) {
+            assertEquals(Math.pow(2, (i - 1000) / (double) DAY),
+                    ranker.getScore(Integer.toString(i), NOW + 1000), DELTA);
+        }
+        assertEquals("1000", ranker.getTopNumbers(1)[0]);
+    }
+
+    @Test
+    public void clearRemovesEntries() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 4);
+        ranker.recordCall("1", NOW);
+        ranker.clear();
+        assertEquals(0, ranker.size());
+        assertEquals(0.0, ranker.getScore("1", NOW), 0);
+        assertEquals(0, ranker.getTopNumbers(4).length);
+    }
+
+    @Test
+    public void writeReadRoundTrip() throws IOException {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 2);
+        for (int i = 1; i <= 100; i++) {
+            ranker.recordCall(Integer.toString(i), NOW + i * HOUR);
+        }
+        ranker.recordCall("7", NOW);
+
+        final FrecencyRanker restored = new FrecencyRanker(DAY, 2);
+        restored.recordCall("555", NOW);
+        restored.readFrom(read(write(ranker)));
+        assertEquals(100, restored.size());
+        assertEquals(0.0, restored.getScore("555", NOW), 0);
+        for (int i = 1; i <= 100; i++) {
+            final String number = Integer.toString(i);
+            assertEquals(ranker.getScore(number, NOW), restored.getScore(number, NOW), DELTA);
+        }
+        assertArrayEquals(ranker.getTopNumbers(2), restored.getTopNumbers(2));
+    }
+
+    @Test
+    public void readRejectsOtherHalfLife() throws IOException {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 2);
+        ranker.recordCall("1", NOW);
+        final FrecencyRanker other = new FrecencyRanker(2 * DAY, 2);
+        try {
+            other.readFrom(read(write(ranker)));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void readRejectsGarbage() {
+        final FrecencyRanker ranker = new FrecencyRanker(DAY, 2);
+        try {
+            ranker.readFrom(read(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] write(FrecencyRanker ranker) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ranker.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream read(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class NumberPrefixIndexTest {
+    @Test
+    public void emptyIndex() {
+        assertEquals(0, NumberPrefixIndex.EMPTY.size());
+        final NumberPrefixIndex.Matcher matcher = NumberPrefixIndex.EMPTY.newMatcher();
+        assertEquals(0, matcher.getMatchCount());
+        matcher.append('1');
+        assertEquals(0, matcher.getMatchCount());
+    }
+
+    @Test
+    public void buildSortsAndDropsDuplicates() {
+        final NumberPrefixIndex index = build("555-1234", "+1 555", "5551234", "12", "120", "12");
+        assertEquals(4, index.size());
+        assertEquals("12", index.getNumber(0));
+        assertEquals("120", index.getNumber(1));
+        assertEquals("5551234", index.getNumber(2));
+        assertEquals("+1555", index.getNumber(3));
+    }
+
+    @Test
+    public void appendNarrowsMatches() {
+        final NumberPrefixIndex index = build("12", "123", "1234", "13", "2");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        assertEquals(5, matcher.getMatchCount());
+        matcher.append('1');
+        assertEquals(4, matcher.getMatchCount());
+        matcher.append('2');
+        assertEquals(3, matcher.getMatchCount());
+        assertEquals("12", matcher.getMatch(0));
+        assertEquals("123", matcher.getMatch(1));
+        assertEquals("1234", matcher.getMatch(2));
+        matcher.append('3');
+        matcher.append('4');
+        assertEquals(1, matcher.getMatchCount());
+        assertEquals("1234", matcher.getMatch(0));
+        matcher.append('5');
+        assertEquals(0, matcher.getMatchCount());
+        assertEquals(5, matcher.getDepth());
+    }
+
+    @Test
+    public void trailingZeroDoesNotMatchShorterNumber() {
+        final NumberPrefixIndex index = build("12", "120", "1200");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        matcher.setQuery("120");
+        assertEquals(2, matcher.getMatchCount());
+        assertEquals("120", matcher.getMatch(0));
+        assertEquals("1200", matcher.getMatch(1));
+    }
+
+    @Test
+    public void removeLastRestoresMatches() {
+        final NumberPrefixIndex index = build("12", "123", "13", "2");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        matcher.append('1');
+        matcher.append('3');
+        assertEquals(1, matcher.getMatchCount());
+        matcher.removeLast();
+        assertEquals(3, matcher.getMatchCount());
+        matcher.removeLast();
+        matcher.removeLast();
+        assertEquals(0, matcher.getDepth());
+        assertEquals(4, matcher.getMatchCount());
+    }
+
+    @Test
+    public void appendIgnoresFormatting() {
+        final NumberPrefixIndex index = build("5551234", "5561234");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        matcher.append('(');
+        matcher.append('5');
+        matcher.append(' ');
+        assertEquals(1, matcher.getDepth());
+        assertEquals(2, matcher.getMatchCount());
+    }
+
+    @Test
+    public void setQueryMatchesAppends() {
+        final NumberPrefixIndex index = build("5551234", "5559876", "5561234", "*67", "#31#");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        matcher.setQuery("555");
+        assertEquals(2, matcher.getMatchCount());
+        matcher.setQuery("555-9");
+        assertEquals(4, matcher.getDepth());
+        assertEquals(1, matcher.getMatchCount());
+        assertEquals("5559876", matcher.getMatch(0));
+        matcher.setQuery("556");
+        assertEquals(3, matcher.getDepth());
+        assertEquals("5561234", matcher.getMatch(0));
+        matcher.setQuery("*");
+        assertEquals(1, matcher.getMatchCount());
+        assertEquals("*67", matcher.getMatch(0));
+        matcher.setQuery("");
+        assertEquals(5, matcher.getMatchCount());
+    }
+
+    @Test
+    public void queryLongerThanInitialDepth() {
+        final String number = "+4930123456789012345678";
+        final NumberPrefixIndex index = build(number, number + "9", "+4930");
+        final NumberPrefixIndex.Matcher matcher = index.newMatcher();
+        for (int i = 0; i < number.length(); i++) {
+            matcher.append(number.charAt(i));
+        }
+        assertEquals(number.length(), matcher.getDepth());
+        assertEquals(2, matcher.getMatchCount());
+        assertEquals(number, matcher.getMatch(0));
+        for (int i = 0; i < number.length() - 5; i++) {
+            matcher.removeLast();
+        }
+        assertEquals(3, matcher.getMatchCount());
+    }
+
+    @Test
+    public void mergeKeepsBothSources() {
+        final NumberPrefixIndex index = build("123", "456");
+        final PackedNumberStore added = new PackedNumberStore();
+        added.add("456");
+        added.add("124");
+        final NumberPrefixIndex merged = NumberPrefixIndex.merge(index, added);
+        assertEquals(3, merged.size());
+        assertEquals("123", merged.getNumber(0));
+        assertEquals("124", merged.getNumber(1));
+        assertEquals("456", merged.getNumber(2));
+        assertEquals(2, index.size());
+        assertEquals(2, added.size());
+
+        final NumberPrefixIndex.Matcher matcher = merged.newMatcher();
+        matcher.setQuery("12");
+        assertEquals(2, matcher.getMatchCount());
+    }
+
+    @Test
+    public void mergeIntoEmpty() {
+        final PackedNumberStore added = new PackedNumberStore();
+        added.add("1");
+        final NumberPrefixIndex merged = NumberPrefixIndex.merge(NumberPrefixIndex.EMPTY, added);
+        assertEquals(1, merged.size());
+        assertEquals("1", merged.getNumber(0));
+        assertEquals(0, NumberPrefixIndex.EMPTY.size());
+    }
+
+    private static NumberPrefixIndex build(String... numbers) {
+        final PackedNumberStore store = new PackedNumberStore();
+        for (String number : numbers) {
+            store.add(number);
+        }
+        return NumberPrefixIndex.build(store);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.calllog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PackedNumberStoreTest {
+    private static final String NUMBER_16 = "1234567890123456";
+    private static final String NUMBER_32 = NUMBER_16 + "6543210987654321";
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        final String dialChars = "0123456789*#+,;";
+        for (int i = 0; i < dialChars.length(); i++) {
+            assertEquals(i, PackedNumberStore.encode(dialChars.charAt(i)));
+            assertEquals(dialChars.charAt(i), PackedNumberStore.decode(i));
+        }
+        assertEquals(PackedNumberStore.NOT_A_DIAL_CHAR, PackedNumberStore.encode(' '));
+        assertEquals(PackedNumberStore.NOT_A_DIAL_CHAR, PackedNumberStore.encode('-'));
+        assertEquals(PackedNumberStore.NOT_A_DIAL_CHAR, PackedNumberStore.encode('a'));
+    }
+
+    @Test
+    public void packToLongKeepsLeadingZeros() {
+        assertEquals(0L, PackedNumberStore.packToLong(""));
+        assertNotEquals(PackedNumberStore.packToLong("0"), PackedNumberStore.packToLong("00"));
+        assertEquals("00", PackedNumberStore.unpackLong(PackedNumberStore.packToLong("00")));
+    }
+
+    @Test
+    public void packToLongLengthLimit() {
+        final String longest = NUMBER_16.substring(0, PackedNumberStore.MAX_PACKED_LONG_LENGTH);
+        assertEquals(longest, PackedNumberStore.unpackLong(PackedNumberStore.packToLong(longest)));
+        assertEquals(PackedNumberStore.NOT_PACKABLE, PackedNumberStore.packToLong(NUMBER_16));
+
+        // The highest codes in every nibble must not collide with NOT_PACKABLE.
+        final String highest = repeat(';', PackedNumberStore.MAX_PACKED_LONG_LENGTH);
+        assertNotEquals(PackedNumberStore.NOT_PACKABLE, PackedNumberStore.packToLong(highest));
+        assertEquals(highest, PackedNumberStore.unpackLong(PackedNumberStore.packToLong(highest)));
+    }
+
+    @Test
+    public void packToLongIgnoresFormatting() {
+        assertEquals(PackedNumberStore.packToLong("5551234567"),
+                PackedNumberStore.packToLong("(555) 123-4567"));
+        assertEquals(PackedNumberStore.packToLong(NUMBER_16.substring(0, 15)),
+                PackedNumberStore.packToLong("123-456-789-012-345"));
+    }
+
+    @Test
+    public void addDropsFormatting() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int index = store.add("+1 (555) 123-4567,890;1");
+        assertEquals("+15551234567,890;1", store.getNumber(index));
+        assertEquals(18, store.length(index));
+        assertTrue(store.equalsNumber(index, "+1-555-123-4567,890;1"));
+        assertTrue(store.startsWith(index, "+1 555"));
+        assertFalse(store.startsWith(index, "+1 556"));
+    }
+
+    @Test
+    public void nibblesAcrossWordBoundary() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int index = store.add(NUMBER_16 + "9");
+        assertEquals(6, store.codeAt(index, 15));
+        assertEquals(9, store.codeAt(index, 16));
+        assertEquals('6', store.charAt(index, 15));
+        assertEquals('9', store.charAt(index, 16));
+        assertEquals(NUMBER_16 + "9", store.getNumber(index));
+    }
+
+    @Test
+    public void numbersStartOnWordBoundaries() {
+        final PackedNumberStore store = new PackedNumberStore();
+        store.add("");
+        assertEquals(0, store.getArenaBytes());
+        store.add(NUMBER_16);
+        assertEquals(8, store.getArenaBytes());
+        store.add(NUMBER_16 + "1");
+        assertEquals(24, store.getArenaBytes());
+        store.add(NUMBER_32);
+        assertEquals(40, store.getArenaBytes());
+    }
+
+    @Test
+    public void equalsAtSixteenChars() {
+        assertWordEdge(NUMBER_16);
+    }
+
+    @Test
+    public void equalsAtThirtyTwoChars() {
+        assertWordEdge(NUMBER_32);
+    }
+
+    @Test
+    public void trailingZerosAreNotPadding() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int[] lengths = new int[] { 15, 16, 17, 31, 32, 33 };
+        for (int length : lengths) {
+            final int shorter = store.add(repeat('0', length - 1));
+            final int number = store.add(repeat('0', length));
+            assertFalse(store.equals(number, shorter));
+            assertTrue(store.startsWith(number, shorter));
+            assertFalse(store.startsWith(shorter, number));
+            assertTrue(store.compare(shorter, number) < 0);
+            assertTrue(store.compare(number, shorter) > 0);
+            assertFalse(store.equalsNumber(number, repeat('0', length - 1)));
+            assertFalse(store.equalsNumber(shorter, repeat('0', length)));
+        }
+    }
+
+    @Test
+    public void emptyNumber() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int empty = store.add("");
+        final int other = store.add("--");
+        final int zero = store.add("0");
+        assertEquals(0, store.length(empty));
+        assertEquals("", store.getNumber(empty));
+        assertTrue(store.equals(empty, other));
+        assertEquals(0, store.compare(empty, other));
+        assertTrue(store.startsWith(zero, empty));
+        assertTrue(store.compare(empty, zero) < 0);
+    }
+
+    @Test
+    public void compareOrdersDialCharacters() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int one = store.add("1");
+        final int nine = store.add("9");
+        final int star = store.add("*");
+        final int hash = store.add("#");
+        final int plus = store.add("+");
+        final int twelve = store.add("12");
+        assertTrue(store.compare(one, nine) < 0);
+        assertTrue(store.compare(nine, one) > 0);
+        assertTrue(store.compare(nine, star) < 0);
+        assertTrue(store.compare(star, hash) < 0);
+        assertTrue(store.compare(hash, plus) < 0);
+        assertTrue(store.compare(one, twelve) < 0);
+        assertTrue(store.compare(twelve, nine) < 0);
+        assertEquals(0, store.compare(nine, store.add("9")));
+    }
+
+    @Test
+    public void compareInSecondWord() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int low = store.add(NUMBER_16 + "1");
+        final int high = store.add(NUMBER_16 + "9");
+        final int highest = store.add(NUMBER_16 + "+");
+        assertTrue(store.compare(low, high) < 0);
+        assertTrue(store.compare(high, highest) < 0);
+        assertTrue(store.compare(highest, low) > 0);
+    }
+
+    @Test
+    public void addFromOtherStore() {
+        final PackedNumberStore source = new PackedNumberStore();
+        source.add("1");
+        final int index = source.add(NUMBER_32 + "7");
+        final PackedNumberStore store = new PackedNumberStore(1);
+        store.add("2");
+        final int copy = store.add(source, index);
+        assertEquals(NUMBER_32 + "7", store.getNumber(copy));
+        assertTrue(store.equals(copy, store.add(NUMBER_32 + "7")));
+        assertEquals("2", store.getNumber(0));
+    }
+
+    @Test
+    public void clearResetsArena() {
+        final PackedNumberStore store = new PackedNumberStore(1);
+        store.add(repeat('9', 40));
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getArenaBytes());
+        final int index = store.add("1");
+        assertEquals(0, index);
+        assertEquals("1", store.getNumber(index));
+        assertTrue(store.equals(index, store.add("1")));
+    }
+
+    @Test
+    public void growsFromMinimalCapacity() {
+        final PackedNumberStore store = new PackedNumberStore(0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, store.add(Integer.toString(i) + NUMBER_16));
+        }
+        assertEquals(100, store.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i) + NUMBER_16, store.getNumber(i));
+        }
+    }
+
+    @Test
+    public void truncatesToMaxLength() {
+        final PackedNumberStore store = new PackedNumberStore();
+        final int index = store.add(repeat('5', PackedNumberStore.MAX_LENGTH + 10));
+        assertEquals(PackedNumberStore.MAX_LENGTH, store.length(index));
+        assertEquals('5', store.charAt(index, PackedNumberStore.MAX_LENGTH - 1));
+    }
+
+    /**
+     * Checks numbers of {@code number}'s length which differ only in their last character, where
+     * the mask of the last word covers a full word.
+     */
+    private static void assertWordEdge(String number) {
+        final PackedNumberStore store = new PackedNumberStore();
+        final String last = number.substring(0, number.length() - 1);
+        final int a = store.add(number);
+        final int b = store.add(last + "7");
+        final int prefix = store.add(last);
+        assertTrue(store.equals(a, store.add(number)));
+        assertFalse(store.equals(a, b));
+        assertTrue(store.compare(a, b) < 0);
+        assertTrue(store.compare(b, a) > 0);
+        assertTrue(store.startsWith(a, prefix));
+        assertTrue(store.startsWith(b, prefix));
+        assertFalse(store.startsWith(a, b));
+        assertTrue(store.compare(prefix, a) < 0);
+        assertTrue(store.equalsNumber(a, number));
+        assertFalse(store.equalsNumber(b, number));
+    }
+
+    private static String repeat(char c, int count) {
+        final StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
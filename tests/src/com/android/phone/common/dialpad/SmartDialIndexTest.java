@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.common.dialpad;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmartDialIndexTest {
+    private SmartDialMap mMap;
+
+    @Before
+    public void setUp() {
+        // Latin letters are always mapped, so no localized letters are needed.
+        mMap = SmartDialMap.fromLetters("", "", "", "", "", "", "", "");
+    }
+
+    @Test
+    public void emptyIndex() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap).build();
+        assertEquals(0, index.size());
+        final SmartDialIndex.Query query = index.newQuery();
+        assertEquals(0, query.getMatchCount());
+        query.append(5);
+        assertEquals(0, query.getMatchCount());
+        assertEquals(0, query.getTopMatches(new int[4]));
+    }
+
+    @Test
+    public void emptyQueryMatchesEveryName() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John Smith", 0)
+                .add(2, "!!!", 0)
+                .build();
+        assertEquals(2, index.size());
+        assertEquals(1, index.getId(0));
+        assertEquals("!!!", index.getName(1));
+        assertEquals(2, index.newQuery().getMatchCount());
+    }
+
+    @Test
+    public void matchesNameStartRunningOnIntoNextWord() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John Smith", 0)
+                .build();
+        assertMatches(index, "5646", 1L);
+        assertMatches(index, "56467", 1L);
+        assertMatches(index, "564676484", 1L);
+        assertMatches(index, "5646764841");
+    }
+
+    @Test
+    public void matchesInitials() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John Ronald Smith", 0)
+                .build();
+        assertMatches(index, "57", 1L);
+        assertMatches(index, "577", 1L);
+        assertMatches(index, "578");
+        assertMatches(index, "5677");
+    }
+
+    @Test
+    public void matchesLaterWordStart() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John Smith", 0)
+                .build();
+        assertMatches(index, "764", 1L);
+        assertMatches(index, "76484", 1L);
+        assertMatches(index, "6484");
+        assertMatches(index, "99");
+    }
+
+    @Test
+    public void mapsAccentsAndDigits() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "Jos\u00e9", 0)
+                .add(2, "Agent 007", 0)
+                .build();
+        assertMatches(index, "5673", 1L);
+        assertMatches(index, "007", 2L);
+        assertMatches(index, "20", 2L);
+    }
+
+    @Test
+    public void ranksByKindThenAffinityThenLength() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "Zoe Adele", 10)
+                .add(2, "Ann Davis", 5)
+                .add(3, "Adam", 0)
+                .add(4, "Adelaide", 0)
+                .add(5, "Adams", 1)
+                .build();
+        assertMatches(index, "23", 5L, 3L, 4L, 2L, 1L);
+    }
+
+    @Test
+    public void topMatchesKeepsBest() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "Jo", 1)
+                .add(2, "John Smith", 1)
+                .add(3, "Kate", 3)
+                .add(4, "Anna Jones", 9)
+                .build();
+        final SmartDialIndex.Query query = index.newQuery();
+        query.setQuery("5");
+        assertEquals(4, query.getMatchCount());
+        final int[] positions = new int[2];
+        assertEquals(2, query.getTopMatches(positions));
+        assertEquals(3, index.getId(positions[0]));
+        assertEquals(1, index.getId(positions[1]));
+        assertEquals(0, query.getTopMatches(new int[0]));
+    }
+
+    @Test
+    public void removeLastRestoresMatches() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John", 0)
+                .add(2, "Joe", 0)
+                .add(3, "Kate", 0)
+                .build();
+        final SmartDialIndex.Query query = index.newQuery();
+        query.append(5);
+        query.append(6);
+        query.append(4);
+        assertEquals(1, query.getMatchCount());
+        query.removeLast();
+        assertEquals(2, query.getMatchCount());
+        query.removeLast();
+        assertEquals(3, query.getMatchCount());
+        query.removeLast();
+        query.removeLast();
+        assertEquals(3, query.getMatchCount());
+    }
+
+    @Test
+    public void setQueryIgnoresOtherCharacters() {
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, "John Smith", 0)
+                .add(2, "Jane", 0)
+                .build();
+        final SmartDialIndex.Query query = index.newQuery();
+        query.setQuery("5-6");
+        assertEquals(1, query.getMatchCount());
+        query.setQuery("52");
+        assertEquals(1, query.getMatchCount());
+        query.setQuery("5 7");
+        assertEquals(1, query.getMatchCount());
+        query.setQuery("");
+        assertEquals(2, query.getMatchCount());
+    }
+
+    @Test
+    public void queryLongerThanInitialCapacity() {
+        final String name = "Abcdefghijklmnopqrstuvwxyz";
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, name, 0)
+                .add(2, "Abcdefghijklmnop", 0)
+                .build();
+        assertMatches(index, "2223334445556667777888999", 1L);
+        assertMatches(index, "2223334445556667", 2L, 1L);
+    }
+
+    @Test
+    public void longNamesAreTruncated() {
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append("Abc ");
+        }
+        final SmartDialIndex index = new SmartDialIndex.Builder(mMap)
+                .add(1, name.toString(), 0)
+                .build();
+        final StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 85; i++) {
+            digits.append("222");
+        }
+        assertMatches(index, digits.toString(), 1L);
+        assertMatches(index, digits.toString() + "2");
+    }
+
+    @Test
+    public void builderGrows() {
+        final SmartDialIndex.Builder builder = new SmartDialIndex.Builder(mMap);
+        for (int i = 0; i < 200; i++) {
+            builder.add(i, "Name " + i, i);
+        }
+        final SmartDialIndex index = builder.build();
+        assertEquals(200, index.size());
+        assertEquals("Name 199", index.getName(199));
+        final SmartDialIndex.Query query = index.newQuery();
+        query.setQuery("6263");
+        assertEquals(200, query.getMatchCount());
+        query.setQuery("199");
+        assertEquals(1, query.getMatchCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendRejectsDigitAboveNine() {
+        new SmartDialIndex.Builder(mMap).build().newQuery().append(10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendRejectsNegativeDigit() {
+        new SmartDialIndex.Builder(mMap).build().newQuery().append(-1);
+    }
+
+    /** Checks that {@code digits} match exactly the names with the given ids, best first. */
+    private static void assertMatches(SmartDialIndex index, String digits, long... ids) {
+        final SmartDialIndex.Query query = index.newQuery();
+        query.setQuery(digits);
+        assertEquals(ids.length, query.getMatchCount());
+        final int[] positions = new int[ids.length + 1];
+        assertEquals(ids.length, query.getTopMatches(positions));
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], index.getId(positions[i]));
+        }
+    }
+}